@@ -1,24 +1,32 @@
 package com.redhat.sso.ninja;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.redhat.sso.ninja.utils.IOUtils2;
+import com.redhat.sso.ninja.utils.LevelTable;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 
+// The config file. Whenever the options change (loaded, saved from the UI, or edited on disk and
+// picked up by ConfigWatcher) a new ConfigSnapshot is published and a ConfigChanged event fired;
+// read options through getSnapshot() rather than parsing getOptions()
 @ApplicationScoped
 @Named("config")
 public class Config {
@@ -31,7 +39,25 @@ public class Config {
     @Inject
     @Named("objectMapper")
     ObjectMapper objectMapper;
-    
+
+    @Inject
+    Event<ConfigChanged> changes;
+
+    @ConfigProperty(name = "ninja.login.enabled", defaultValue = "false")
+    boolean defaultLoginEnabled;
+
+    @ConfigProperty(name = "ninja.events.max", defaultValue = "1000000")
+    int defaultMaxEventEntries;
+
+    @ConfigProperty(name = "ninja.heartbeat.interval.seconds", defaultValue = "86400")
+    long defaultHeartbeatIntervalSeconds;
+
+    @ConfigProperty(name = "ninja.heartbeat.start.time", defaultValue = "21:00")
+    String defaultHeartbeatStartTime;
+
+    private volatile ConfigSnapshot snapshot;
+    private String lastContent; // the file as last read or written, so a save of ours isn't reloaded
+
     private List<Map<String, Object>> scripts = null;
     private Map<String, String> options = null;
     private Map<String, Object> values = null;
@@ -52,6 +78,41 @@ public class Config {
         }
     }
 
+    @JsonIgnore
+    public ConfigSnapshot getSnapshot() {
+        ConfigSnapshot current = snapshot;
+        if (null == current) {
+            synchronized (this) {
+                if (null == snapshot) snapshot = ConfigSnapshot.parse(getOptions(), defaults());
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private ConfigSnapshot defaults() {
+        LocalTime startTime = LocalTime.of(21, 0);
+        try {
+            if (null != defaultHeartbeatStartTime) startTime = LocalTime.parse(defaultHeartbeatStartTime);
+        } catch (RuntimeException e) {
+            log.warnf("Unreadable ninja.heartbeat.start.time [%s], using %s", defaultHeartbeatStartTime, startTime);
+        }
+        return ConfigSnapshot.defaults(defaultLoginEnabled, defaultMaxEventEntries, defaultHeartbeatIntervalSeconds, startTime);
+    }
+
+    // a new snapshot, if the options changed, and then the subscribers told (outside the lock)
+    private void publish() {
+        ConfigChanged change;
+        synchronized (this) {
+            ConfigSnapshot previous = snapshot;
+            if (null != previous && previous.getOptions().equals(getOptions())) return;
+            snapshot = ConfigSnapshot.parse(getOptions(), defaults());
+            change = new ConfigChanged(previous, snapshot);
+        }
+        log.debug("Config options changed, new snapshot published");
+        if (null != changes) changes.fire(change);
+    }
+
     public Map<String, String> getOptions() {
         if (options == null) options = new HashMap<>();
         return options;
@@ -62,9 +123,22 @@ public class Config {
         return scripts;
     }
 
-    public Map<String, Object> getValues() {
+    // a copy taken under the config's lock, as values change while running (see putValue) and are
+    // read by the heartbeat, scripts and the UI at the same time. Values are replaced, never changed
+    // in place, so a shallow copy is enough
+    public synchronized Map<String, Object> getValues() {
+        return null != values ? new HashMap<>(values) : new HashMap<>();
+    }
+
+    public synchronized void setValues(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    // for values kept up to date while running (ie. heartbeat watermarks), set and saved under the config's lock
+    public synchronized void putValue(String key, Object value) {
         if (values == null) values = new HashMap<>();
-        return values;
+        values.put(key, value);
+        save();
     }
 
     public List<Map<String, String>> getNotifications() {
@@ -72,19 +146,59 @@ public class Config {
         return notifications;
     }
 
+    // replaces the settings with ones posted from the UI (that instance isn't a bean, it can't save itself)
+    public void update(Config other) {
+        synchronized (this) {
+            this.options = other.options;
+            this.scripts = other.scripts;
+            this.values = other.values;
+            this.notifications = other.notifications;
+            save();
+        }
+        publish();
+    }
+
+    // after the file changed on disk; false if it's what was last read or written. An unreadable
+    // file (ie. half written by an editor) leaves the config as it is
+    public boolean reloadIfChanged() {
+        synchronized (this) {
+            try {
+                String content = Files.readString(storageFile.toPath(), StandardCharsets.UTF_8);
+                if (content.equals(lastContent)) return false;
+                Config loaded = objectMapper.readValue(content, Config.class);
+                this.options = loaded.options;
+                this.scripts = loaded.scripts;
+                this.values = loaded.values;
+                this.notifications = loaded.notifications;
+                lastContent = content;
+                log.info("Config reloaded (changed on disk, size=" + content.length() + ")");
+            } catch (IOException e) {
+                log.warnf("Config changed on disk but couldn't be read, keeping the current one: %s", e.getMessage());
+                return false;
+            }
+        }
+        publish();
+        return true;
+    }
+
     public void reload() {
         // Reload from file
         load();
     }
 
-    public void save() {
+    // written to a temporary file and moved into place, so the watcher never sees half a file
+    public synchronized void save() {
         try {
-            if (!storageFile.getParentFile().exists()) {
+            if (!storageFile.getAbsoluteFile().getParentFile().exists()) {
                 log.info("Config storage folder didn't exist - creating new folder to store config");
-                storageFile.getParentFile().mkdirs();
+                storageFile.getAbsoluteFile().getParentFile().mkdirs();
             }
-            IOUtils2.writeAndClose(objectMapper.writerWithDefaultPrettyPrinter()
-                    .writeValueAsBytes(this), new FileOutputStream(storageFile));
+            String content = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(this);
+            Path path = storageFile.toPath();
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(tmp, content, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            lastContent = content;
             log.info("Config saved (size=" + storageFile.length() + ")");
         } catch (IOException e) {
             log.error("Failed to save config", e);
@@ -92,6 +206,13 @@ public class Config {
     }
 
     public void load() {
+        synchronized (this) {
+            read();
+        }
+        publish();
+    }
+
+    private void read() {
         try {
             if (!storageFile.exists()) {
                 log.info("Config file doesn't exist, creating default one here: " + storageFile.getAbsolutePath());
@@ -101,12 +222,13 @@ public class Config {
                 save();
             }
             log.info("Config loading (location=" + storageFile.getAbsolutePath() + ", size=" + storageFile.length() + ")");
-            String toLoad = IOUtils2.toStringAndClose(new FileInputStream(storageFile));
+            String toLoad = Files.readString(storageFile.toPath(), StandardCharsets.UTF_8);
             Config loaded = objectMapper.readValue(toLoad, Config.class);
             this.options = loaded.options;
             this.scripts = loaded.scripts;
             this.values = loaded.values;
             this.notifications = loaded.notifications;
+            lastContent = toLoad;
         } catch (Exception e) {
             log.error("Failed to load config, using defaults", e);
             initializeDefaults();
@@ -119,7 +241,7 @@ public class Config {
         options.put("heartbeat.intervalInSeconds", "86400");
         options.put("heartbeat.startTime", "21:00");
         options.put("events.max", "1000000");
-        options.put("thresholds", "0:ZERO,5:BLUE,20:GREY,40:RED,75:BLACK");
+        options.put("thresholds", LevelTable.DEFAULT_THRESHOLDS);
         
         scripts = new ArrayList<>();
         values = new HashMap<>();
@@ -129,18 +251,4 @@ public class Config {
     public void setOptions(Map<String, String> value) {
         this.options = value;
     }
-
-    @JsonIgnore
-    public String getNextTaskNum() {
-        if (!getValues().containsKey("lastTaskNum")) {
-            getValues().put("lastTaskNum", 0);
-        }
-
-        int result = 1 + (Integer) getValues().get("lastTaskNum");
-        getValues().put("lastTaskNum", result);
-        save();
-
-        return String.valueOf(result);
-    }
 }
-
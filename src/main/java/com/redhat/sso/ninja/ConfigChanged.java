@@ -0,0 +1,29 @@
+package com.redhat.sso.ninja;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+// Fired (as a CDI event) once a new ConfigSnapshot has been published because the options changed,
+// whether saved from the UI or edited on disk. previous is null for the first load
+public final class ConfigChanged {
+    private final ConfigSnapshot previous;
+    private final ConfigSnapshot current;
+
+    ConfigChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public ConfigSnapshot getPrevious() {
+        return previous;
+    }
+
+    public ConfigSnapshot getCurrent() {
+        return current;
+    }
+
+    // ie. changed(s -> s.getLevels().getSpec())
+    public boolean changed(Function<ConfigSnapshot, ?> value) {
+        return null == previous || !Objects.equals(value.apply(previous), value.apply(current));
+    }
+}
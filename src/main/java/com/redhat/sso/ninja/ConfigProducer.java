@@ -21,6 +21,18 @@ public class ConfigProducer {
     @ConfigProperty(name = "ninja.database.file", defaultValue = "target/ninja-persistence/database2.json")
     String databaseFile;
 
+    @ConfigProperty(name = "ninja.database.wal.file", defaultValue = "target/ninja-persistence/database2.wal")
+    String databaseWalFile;
+
+    @ConfigProperty(name = "ninja.events.dir", defaultValue = "target/ninja-persistence/events")
+    String eventsDir;
+
+    @ConfigProperty(name = "ninja.dedup.file", defaultValue = "target/ninja-persistence/dedup.bin")
+    String dedupFile;
+
+    @ConfigProperty(name = "ninja.tasks.sequence.file", defaultValue = "target/ninja-persistence/tasks.seq")
+    String taskSequenceFile;
+
     @Produces
     @ApplicationScoped
     @Named("objectMapper")
@@ -43,5 +55,32 @@ public class ConfigProducer {
     File databaseFile() {
         return new File(databaseFile);
     }
-}
 
+    @Produces
+    @Dependent
+    @Named("databaseWalFile")
+    File databaseWalFile() {
+        return new File(databaseWalFile);
+    }
+
+    @Produces
+    @Dependent
+    @Named("eventsDir")
+    File eventsDir() {
+        return new File(eventsDir);
+    }
+
+    @Produces
+    @Dependent
+    @Named("dedupFile")
+    File dedupFile() {
+        return new File(dedupFile);
+    }
+
+    @Produces
+    @Dependent
+    @Named("taskSequenceFile")
+    File taskSequenceFile() {
+        return new File(taskSequenceFile);
+    }
+}
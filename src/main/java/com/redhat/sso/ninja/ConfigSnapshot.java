@@ -0,0 +1,95 @@
+package com.redhat.sso.ninja;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.utils.LevelTable;
+
+// The config options as of the last load or save, parsed once into typed values. Never changed
+// once built: Config publishes a new one whole (see Config.getSnapshot and ConfigChanged), so
+// readers get every option from the same version and never parse strings themselves. An option
+// that's missing or unreadable falls back to its ninja.* property
+public final class ConfigSnapshot {
+    private static final Logger log = Logger.getLogger(ConfigSnapshot.class);
+
+    private final Map<String, String> options;
+    private final boolean loginEnabled;
+    private final int maxEventEntries;
+    private final LevelTable levels;
+    private final long heartbeatIntervalSeconds;
+    private final LocalTime heartbeatStartTime;
+
+    private ConfigSnapshot(Map<String, String> options, boolean loginEnabled, int maxEventEntries, LevelTable levels, long heartbeatIntervalSeconds, LocalTime heartbeatStartTime) {
+        this.options = options;
+        this.loginEnabled = loginEnabled;
+        this.maxEventEntries = maxEventEntries;
+        this.levels = levels;
+        this.heartbeatIntervalSeconds = heartbeatIntervalSeconds;
+        this.heartbeatStartTime = heartbeatStartTime;
+    }
+
+    // what options fall back to
+    static ConfigSnapshot defaults(boolean loginEnabled, int maxEventEntries, long heartbeatIntervalSeconds, LocalTime heartbeatStartTime) {
+        return new ConfigSnapshot(Collections.emptyMap(), loginEnabled, maxEventEntries, LevelTable.parse(null), heartbeatIntervalSeconds, heartbeatStartTime);
+    }
+
+    static ConfigSnapshot parse(Map<String, String> options, ConfigSnapshot defaults) {
+        Map<String, String> copy = Collections.unmodifiableMap(new HashMap<>(options));
+        String login = copy.get("login.enabled");
+        String levels = copy.get("thresholds");
+        return new ConfigSnapshot(copy,
+                null != login ? "true".equalsIgnoreCase(login.trim()) : defaults.loginEnabled,
+                (int) number(copy, "events.max", defaults.maxEventEntries),
+                null != levels ? LevelTable.parse(levels) : defaults.levels,
+                Math.max(60, number(copy, "heartbeat.intervalInSeconds", defaults.heartbeatIntervalSeconds)),
+                time(copy, "heartbeat.startTime", defaults.heartbeatStartTime));
+    }
+
+    private static long number(Map<String, String> options, String name, long fallback) {
+        String value = options.get(name);
+        if (null == value) return fallback;
+        if (value.trim().matches("\\d{1,9}")) return Long.parseLong(value.trim());
+        log.warnf("Unreadable %s [%s], using %d", name, value, fallback);
+        return fallback;
+    }
+
+    private static LocalTime time(Map<String, String> options, String name, LocalTime fallback) {
+        String value = options.get(name);
+        if (null == value) return fallback;
+        try {
+            return LocalTime.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            log.warnf("Unreadable %s [%s], using %s", name, value, fallback);
+            return fallback;
+        }
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public boolean isLoginEnabled() {
+        return loginEnabled;
+    }
+
+    public int getMaxEventEntries() {
+        return maxEventEntries;
+    }
+
+    public LevelTable getLevels() {
+        return levels;
+    }
+
+    public long getHeartbeatIntervalSeconds() {
+        return heartbeatIntervalSeconds;
+    }
+
+    public LocalTime getHeartbeatStartTime() {
+        return heartbeatStartTime;
+    }
+}
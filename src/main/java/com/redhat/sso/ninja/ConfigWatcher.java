@@ -0,0 +1,99 @@
+package com.redhat.sso.ninja;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Reloads the config when config.json changes on disk (see Config.reloadIfChanged), so an edited
+// file takes effect without a restart or a save from the UI. Changes are picked up once the file
+// has been quiet for settle-ms, editors tend to write in several steps
+@ApplicationScoped
+public class ConfigWatcher {
+    private static final Logger log = Logger.getLogger(ConfigWatcher.class);
+
+    @Inject
+    Config config;
+
+    @Inject
+    @Named("configFile")
+    File configFile;
+
+    @ConfigProperty(name = "ninja.config.watch", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "ninja.config.watch.settle-ms", defaultValue = "500")
+    long settleMillis;
+
+    private WatchService watcher;
+
+    public synchronized void start() {
+        if (!enabled || null != watcher) return;
+        Path dir = configFile.getAbsoluteFile().getParentFile().toPath();
+        try {
+            watcher = dir.getFileSystem().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.errorf(e, "Unable to watch %s for config changes", dir);
+            return;
+        }
+        Thread thread = new Thread(this::watch, "ninja-config-watch");
+        thread.setDaemon(true);
+        thread.start();
+        log.infof("Watching %s for changes", configFile.getAbsolutePath());
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        if (null == watcher) return;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            log.debug("Closing the config watcher", e);
+        }
+    }
+
+    private void watch() {
+        Path name = configFile.toPath().getFileName();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = touches(key, name);
+                // wait for it to settle, taking in anything else that arrives meanwhile
+                while (changed && null != (key = watcher.poll(settleMillis, TimeUnit.MILLISECONDS)))
+                    touches(key, name);
+                if (!changed) continue;
+                try {
+                    config.reloadIfChanged();
+                } catch (RuntimeException e) {
+                    log.error("Failed to apply the changed config", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private static boolean touches(WatchKey key, Path name) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents())
+            if (name.equals(event.context()) || event.kind() == StandardWatchEventKinds.OVERFLOW) touched = true;
+        key.reset();
+        return touched;
+    }
+}
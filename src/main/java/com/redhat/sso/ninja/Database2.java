@@ -1,30 +1,53 @@
 package com.redhat.sso.ninja;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 import org.jboss.logging.Logger;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import com.redhat.sso.ninja.utils.IOUtils2;
+import com.redhat.sso.ninja.dedup.DuplicateChecker;
+import com.redhat.sso.ninja.events.Event;
+import com.redhat.sso.ninja.events.EventStore;
+import com.redhat.sso.ninja.ingest.PointsIncrement;
+import com.redhat.sso.ninja.persistence.PersistenceScheduler;
+import com.redhat.sso.ninja.persistence.SnapshotReader;
+import com.redhat.sso.ninja.persistence.SnapshotWriter;
+import com.redhat.sso.ninja.persistence.TaskSequence;
+import com.redhat.sso.ninja.persistence.WalRecord;
+import com.redhat.sso.ninja.persistence.WriteAheadLog;
+import com.redhat.sso.ninja.scoring.BoardSnapshot;
+import com.redhat.sso.ninja.scoring.PromotionEngine;
+import com.redhat.sso.ninja.scoring.ScoreCard;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 
@@ -44,30 +67,72 @@ public class Database2 {
     @Inject
     @Named("objectMapper")
     ObjectMapper objectMapper;
+
+    @Inject
+    WriteAheadLog wal;
+
+    @Inject
+    SnapshotWriter snapshotWriter;
+
+    @Inject
+    SnapshotReader snapshotReader;
+
+    @Inject
+    PersistenceScheduler persistence;
+
+    @Inject
+    EventStore eventStore;
+
+    @Inject
+    DuplicateChecker dedup;
+
+    @Inject
+    PromotionEngine promotions;
+
+    @Inject
+    TaskSequence taskSequence;
+
+    private static final TypeReference<ConcurrentHashMap<String, ScoreCard>> SCORECARDS_TYPE = new TypeReference<>() {};
+    private static final TypeReference<Map<String, Map<String, String>>> USERS_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<Map<String, String>>> TASKS_TYPE = new TypeReference<>() {};
+    private static final TypeReference<Set<String>> KEYS_TYPE = new TypeReference<>() {};
     
-    public static Integer maxEventEntries = 0;
     public static boolean systemUpdating = false;
 
     // User -> Pool (sub pool separated with a dot) + Score
-    private Map<String, Map<String, Integer>> scorecards;
-    private Map<String, Map<String, String>> users;
-    private List<Map<String, String>> events;
+    // Scoring is concurrent: increments don't take the database monitor, they only hold the
+    // checkpoint lock shared so a checkpoint can't land between a change and its log record.
+    // Both maps are concurrent and every scorecard is a ScoreCard, see there for what readers see
+    private volatile Map<String, Map<String, Integer>> scorecards = new ConcurrentHashMap<>();
+    private volatile Map<String, Map<String, String>> users = new ConcurrentHashMap<>();
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    // what readers see, republished after every change (see BoardSnapshot)
+    private volatile BoardSnapshot board = BoardSnapshot.EMPTY;
+    private long walPosition; // write-ahead log position the snapshot was taken at
+    private final AtomicLong boardVersion = new AtomicLong();
+    private final Object publishLock = new Object();
     private List<Map<String, String>> tasks;
 
     // PoolId -> UserId + Score
     private String created;
     private String version;
-    static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-    static SimpleDateFormat sdf2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm");
+    static final DateTimeFormatter sdf = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    static final DateTimeFormatter sdf2 = Event.TIMESTAMP_FORMAT;
 
     public Database2() {
-        created = sdf.format(new Date());
+        created = sdf.format(LocalDateTime.now());
     }
 
     public String getCreated() {
         return created;
     }
 
+    // stored in the snapshot so replay skips log records it already holds
+    public long getWalPosition() {
+        return walPosition;
+    }
+
     public String getVersion() {
         return version;
     }
@@ -78,11 +143,11 @@ public class Database2 {
 
     // markdown format
     public static String buildLinkMarkdown(Map<String, String> params) {
-        if (!params.containsKey("linkId")) return "";
+        if (!params.containsKey("linkId") || null == params.get("id")) return "";
         if (params.get("id").startsWith("TR")) {
             return "[Trello: " + params.get("linkId") + "/" + params.get("id") + "](https://trello.com/c/" + params.get("linkId") + ")";
         } else if (params.get("id").startsWith("GH")) {
-            if (params.get("pool").toLowerCase().contains("pull")) {
+            if (null != params.get("pool") && params.get("pool").toLowerCase().contains("pull")) {
                 return "<https://github.com/" + params.get("org") + "/" + params.get("board") + "/pull/" + params.get("linkId") + ">";
             } else { // assume "issues"
                 return "<https://github.com/" + params.get("org") + "/" + params.get("board") + "/issues/" + params.get("linkId") + ">";
@@ -93,54 +158,225 @@ public class Database2 {
         return "";
     }
 
-    public synchronized Integer getMaxEventEntries() {
-        if (maxEventEntries <= 0) {
-            String max = config.getOptions().get("events.max");
-            if (null != max && max.matches("\\d+")) {
-                maxEventEntries = Integer.parseInt(max);
-            }
-        }
-        return maxEventEntries;
+    @JsonIgnore
+    public Integer getMaxEventEntries() {
+        return eventStore.getMaxEventEntries();
     }
 
     public Database2 increment(String poolId, String userId, Integer increment, Map<String, String> params) {
-        if (null == poolId || null == userId) {
-            log.error("Unable to add due to null key [poolId=" + poolId + ", userId=" + userId + "]");
+        if (null == poolId || null == userId || null == increment) {
+            log.errorf("Unable to add due to null key [poolId=%s, userId=%s, increment=%s]", poolId, userId, increment);
             return this;
         }
-        if (users.containsKey(userId)) { // means the user is registered
-            if (null == scorecards.get(userId)) scorecards.put(userId, new HashMap<>());
-            if (null == scorecards.get(userId).get(poolId)) scorecards.get(userId).put(poolId, 0);
-            log.info("Incrementing points: user=" + userId + ", poolId=" + poolId + ", increment/points=" + increment + " + params=" + params);
-            scorecards.get(userId).put(poolId, scorecards.get(userId).get(poolId) + increment);
-
-            if (params != null && params.size() > 1) { // because "id" is always added
-                addEvent2("Points Increment", userId, increment, buildLinkMarkdown(params), poolId);
+        checkpointLock.readLock().lock();
+        try {
+            if (getUsers().containsKey(userId)) { // means the user is registered
+                log.infof("Incrementing points: user=%s, poolId=%s, increment/points=%s + params=%s", userId, poolId, increment, params);
+                journal(WalRecord.increment(userId, poolId, increment));
+                scoreCard(userId).add(poolId, increment);
+
+                if (params != null && params.size() > 1) { // because "id" is always added
+                    addEvent2("Points Increment", userId, increment, buildLinkMarkdown(params), poolId);
+                } else {
+                    // no params & therefore no link
+                    addEvent2("Points Increment", userId, increment, "", poolId);
+                }
+                promote(promotions.evaluate(getUsers(), getScoreCards(), List.of(userId)));
+                publish(userId);
+
             } else {
-                // no params & therefore no link
-                addEvent2("Points Increment", userId, increment, "", poolId);
+                log.debugf("Unregistered user detected [%s]", userId);
             }
-
-        } else {
-            log.debug("Unregistered user detected [" + userId + "]");
+        } finally {
+            checkpointLock.readLock().unlock();
         }
 
         return this;
     }
 
+    // A batch of increments applied in one go: the checkpoint lock is taken once, only the users
+    // touched are checked for promotion, the board is republished once for all of them and
+    // persistence is triggered once. Returns each item's outcome, in order
+    public List<PointsIncrement.Status> incrementAll(List<PointsIncrement> increments) {
+        List<PointsIncrement.Status> results = new ArrayList<>(increments.size());
+        Set<String> touched = new LinkedHashSet<>();
+        int minute = Event.currentMinute();
+        long s = System.currentTimeMillis();
+        checkpointLock.readLock().lock();
+        try {
+            for (PointsIncrement increment : increments) {
+                PointsIncrement.Status status = applyIncrement(increment, minute);
+                if (status == PointsIncrement.Status.APPLIED) touched.add(increment.getUser());
+                results.add(status);
+            }
+        } finally {
+            try { // whatever was applied is promoted, published and persisted, even if the batch was cut short
+                promote(promotions.evaluate(getUsers(), getScoreCards(), touched));
+                publish(touched);
+            } finally {
+                checkpointLock.readLock().unlock();
+                if (!touched.isEmpty()) persistence.markDirty();
+            }
+        }
+        log.infof("Applied a batch of %d increments for %d users (%dms)", increments.size(), touched.size(), System.currentTimeMillis() - s);
+        return results;
+    }
+
+    // an item that fails is reported INVALID rather than failing the rest of the batch
+    private PointsIncrement.Status applyIncrement(PointsIncrement increment, int minute) {
+        try {
+            return apply(increment, minute);
+        } catch (RuntimeException e) {
+            log.errorf(e, "Unable to apply increment for %s in pool %s (params=%s)", increment.getUser(), increment.getPool(), increment.getParams());
+            return PointsIncrement.Status.INVALID;
+        }
+    }
+
+    // everything that can fail on the item itself (ie. its link) is worked out before anything is changed
+    private PointsIncrement.Status apply(PointsIncrement increment, int minute) {
+        if (null != increment.validate()) return PointsIncrement.Status.INVALID;
+        String userId = increment.getUser();
+        if (!getUsers().containsKey(userId)) {
+            log.debugf("Unregistered user detected [%s]", userId);
+            return PointsIncrement.Status.UNREGISTERED;
+        }
+        String link = link(increment);
+        if (null != increment.getKey()) {
+            if (!dedup.add(increment.getKey())) return PointsIncrement.Status.DUPLICATE;
+            wal.append(WalRecord.dedup(increment.getKey()));
+        }
+        log.debugf("Incrementing points: user=%s, poolId=%s, increment/points=%s + params=%s", userId, increment.getPool(), increment.getPoints(), increment.getParams());
+        wal.append(WalRecord.increment(userId, increment.getPool(), increment.getPoints()));
+        scoreCard(userId).add(increment.getPool(), increment.getPoints());
+        eventStore.append(new Event(minute, "Points Increment", userId, increment.getPoints(), link, increment.getPool()));
+        return PointsIncrement.Status.APPLIED;
+    }
+
+    // the event's link text; the item's pool stands in for a missing "pool" param, as ScriptRunner does
+    private static String link(PointsIncrement increment) {
+        Map<String, String> params = increment.getParams();
+        if (null == params || params.size() <= 1 || !params.containsKey("id")) return "";
+        params = new HashMap<>(params);
+        params.putIfAbsent("pool", increment.getPool());
+        return buildLinkMarkdown(params);
+    }
+
+    // gives users the belts their points have reached, recording a "User Promotion" event for each.
+    // Called holding the checkpoint lock shared, before the users are republished. A user promoted
+    // by another thread since the promotion was worked out, or already holding the level, is left alone
+    private int promote(List<PromotionEngine.Promotion> due) {
+        int promoted = 0;
+        for (PromotionEngine.Promotion promotion : due) {
+            boolean[] changed = { false };
+            Map<String, String> userInfo = getUsers().computeIfPresent(promotion.getUserId(), (userId, current) -> {
+                if (!Objects.equals(current.get("level"), promotion.getFrom()) || promotion.getTo().equals(promotion.getFrom())) return current;
+                Map<String, String> next = new HashMap<>(current);
+                next.put("level", promotion.getTo());
+                next.put("levelChanged", LocalDate.now().toString());
+                changed[0] = true;
+                return next;
+            });
+            if (!changed[0]) continue;
+            journal(WalRecord.user(promotion.getUserId(), new HashMap<>(userInfo)));
+            addEvent("User Promotion", promotion.getUserId(), "promoted to " + promotion.getTo() + " level");
+            log.infof("Promoted %s from %s to %s", promotion.getUserId(), promotion.getFrom(), promotion.getTo());
+            promoted++;
+        }
+        return promoted;
+    }
+
+    void configChanged(@Observes ConfigChanged change) {
+        if (null != change.getPrevious() && change.changed(options -> options.getLevels().getSpec())) {
+            relevel();
+            commit();
+        }
+    }
+
+    // after the thresholds change: everyone is checked (in parallel) and promoted where due
+    public int relevel() {
+        long s = System.currentTimeMillis();
+        int promoted;
+        checkpointLock.readLock().lock();
+        try {
+            List<PromotionEngine.Promotion> due = promotions.evaluateAll(getUsers(), getScoreCards());
+            promoted = promote(due);
+            List<String> userIds = new ArrayList<>();
+            for (PromotionEngine.Promotion promotion : due) userIds.add(promotion.getUserId());
+            publish(userIds);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        log.infof("Re-levelled %d users, %d promoted (%dms)", getUsers().size(), promoted, System.currentTimeMillis() - s);
+        return promoted;
+    }
+
+    // true the first time a key (ie. pool + user + card id) is claimed, false if it has been claimed
+    // before, in which case the points it stands for have already been awarded
+    public boolean claim(String key) {
+        checkpointLock.readLock().lock();
+        try {
+            if (!dedup.add(key)) return false;
+            journal(WalRecord.dedup(key));
+            return true;
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    // the board as of the last published change, for readers that must not lock or see partial updates
+    @JsonIgnore
+    public BoardSnapshot getBoard() {
+        return board;
+    }
+
+    // republish one user's entry after it changed, sharing everything else with the previous version
+    public void publish(String userId) {
+        synchronized (publishLock) {
+            board = board.with(boardVersion.incrementAndGet(), userId, getUsers().get(userId), getScoreCards().get(userId));
+        }
+    }
+
+    // republish several users' entries as one new version
+    public void publish(Collection<String> userIds) {
+        if (userIds.isEmpty()) return;
+        synchronized (publishLock) {
+            long version = boardVersion.incrementAndGet();
+            BoardSnapshot next = board;
+            for (String userId : userIds)
+                next = next.with(version, userId, getUsers().get(userId), getScoreCards().get(userId));
+            board = next;
+        }
+    }
+
+    // rebuild the board from scratch, after bulk changes such as a load, restore or year end
+    public void publishAll() {
+        synchronized (publishLock) {
+            board = BoardSnapshot.of(boardVersion.incrementAndGet(), getUsers(), getScoreCards(), getScorecardHistory());
+        }
+    }
+
+    // scorecards put in from outside may be plain maps, those are swapped for a ScoreCard first
+    private ScoreCard scoreCard(String userId) {
+        Map<String, Integer> scorecard = getScoreCards().get(userId);
+        if (scorecard instanceof ScoreCard) return (ScoreCard) scorecard;
+        return (ScoreCard) getScoreCards().compute(userId, (k, v) -> ScoreCard.of(v));
+    }
+
     public Map<String, Map<String, String>> getUsers() {
-        if (null == users) users = new HashMap<>();
+        if (null == users) users = new ConcurrentHashMap<>();
         return users;
     }
 
     public Map<String, Map<String, Integer>> getScoreCards() {
-        if (null == scorecards) scorecards = new HashMap<>();
+        if (null == scorecards) scorecards = new ConcurrentHashMap<>();
         return scorecards;
     }
 
-    public List<Map<String, String>> getEvents() {
-        if (null == events) events = new ArrayList<>();
-        return events;
+    // the current month's events, older ones are in the EventStore's segments on disk
+    @JsonIgnore
+    public List<Event> getEvents() {
+        if (null == eventStore) return new ArrayList<>();
+        return eventStore.getHot();
     }
 
     public enum EVENT_FIELDS {
@@ -163,6 +399,11 @@ public class Database2 {
         return tasks;
     }
 
+    // a copy that's safe to serialize while tasks are being added
+    public synchronized List<Map<String, String>> copyTasks() {
+        return new ArrayList<>(getTasks());
+    }
+
     public enum TASK_FIELDS {
         TIMESTAMP("timestamp"),
         USER("user"),
@@ -180,115 +421,293 @@ public class Database2 {
     }
 
     public void addEvent2(String type, String user, Integer points, String source, String pool) {
-        Map<String, String> event = new HashMap<>();
-        event.put(EVENT_FIELDS.TIMESTAMP.v, sdf2.format(new Date()));
-        event.put(EVENT_FIELDS.TYPE.v, type);
-        event.put(EVENT_FIELDS.USER.v, user);
-        event.put(EVENT_FIELDS.POINTS.v, String.valueOf(points));
-        event.put(EVENT_FIELDS.SOURCE.v, source);
-        event.put(EVENT_FIELDS.POOL.v, pool);
-        getEvents().add(event);
-
-        // limit the events to a configurable number of entries
-        while (getEvents().size() > getMaxEventEntries()) {
-            getEvents().remove(0);
-        }
+        appendEvent(new Event(Event.currentMinute(), type, user, points, source, pool));
+    }
+
+    // events are their own append-only log so they bypass the write-ahead log (and the checkpoint lock)
+    private void appendEvent(Event event) {
+        if (null == eventStore) return;
+        eventStore.append(event);
+        persistence.markDirty();
     }
 
     public void addEvent(String type, String user, String text) {
-        Map<String, String> event = new HashMap<>();
-        event.put(EVENT_FIELDS.TIMESTAMP.v, sdf2.format(new Date()));
-        event.put(EVENT_FIELDS.TYPE.v, type);
-        event.put(EVENT_FIELDS.USER.v, user);
-        if (text != null && !"".equals(text)) event.put(EVENT_FIELDS.TEXT.v, text);
-        getEvents().add(event);
-
-        // limit the events to a configurable number of entries
-        while (getEvents().size() > getMaxEventEntries()) {
-            getEvents().remove(0);
-        }
+        appendEvent(new Event(Event.currentMinute(), type, user, text != null && !"".equals(text) ? text : null));
     }
 
     // user is the target user: ie. fbloggs
-    public void addTask(String taskText, String user) {
+    public synchronized void addTask(String taskText, String user) {
         Map<String, String> task = new HashMap<>();
-        task.put(TASK_FIELDS.TIMESTAMP.v, sdf2.format(new Date()));
+        task.put(TASK_FIELDS.TIMESTAMP.v, sdf2.format(LocalDateTime.now()));
         task.put(TASK_FIELDS.UID.v, UUID.randomUUID().toString());
-        task.put(TASK_FIELDS.ID.v, config.getNextTaskNum());
+        task.put(TASK_FIELDS.ID.v, taskSequence.next());
         task.put(TASK_FIELDS.TITLE.v, taskText);
         task.put(TASK_FIELDS.USER.v, user);
         task.put(TASK_FIELDS.LIST.v, "todo");
         getTasks().add(task);
+        journal(WalRecord.task(task));
+    }
+
+    // edits a copy of the user's info and swaps it in, so a promotion landing at the same time can't
+    // lose the edit (or be lost) and maps already published on the board never change. The result
+    // is journalled and republished; null if the user isn't registered
+    public Map<String, String> updateUser(String userId, Consumer<Map<String, String>> edit) {
+        boolean[] changed = { false };
+        Map<String, String> userInfo;
+        checkpointLock.readLock().lock();
+        try {
+            userInfo = getUsers().computeIfPresent(userId, (k, current) -> {
+                Map<String, String> next = new HashMap<>(current);
+                edit.accept(next);
+                if (next.equals(current)) return current;
+                changed[0] = true;
+                return next;
+            });
+            if (changed[0]) {
+                journal(WalRecord.user(userId, new HashMap<>(userInfo)));
+                publish(userId);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        return userInfo;
     }
 
-    private Set<String> pointsDuplicateChecker = new HashSet<>();
+    // call after changing a user's scorecard in place so the change is durable without a full save
+    public synchronized void scorecardUpdated(String userId) {
+        Map<String, Integer> scorecard = getScoreCards().get(userId);
+        if (null != scorecard) journal(WalRecord.scorecard(userId, new HashMap<>(scorecard)));
+        publish(userId);
+    }
 
-    public Set<String> getPointsDuplicateChecker() {
-        if (null == pointsDuplicateChecker) pointsDuplicateChecker = new HashSet<>();
-        return pointsDuplicateChecker;
+    private void journal(WalRecord record) {
+        if (null == wal) return; // detached instance (ie. deserialized from a request body)
+        wal.append(record);
+        persistence.markDirty();
     }
 
-    @JsonIgnore
-    private Map<String, Map<String, Integer>> leaderboard = new HashMap<>();
+    // changes are written in the background; this only blocks if configured to wait for them to be durable
+    public void commit() {
+        persistence.commit();
+    }
 
-    public Map<String, Map<String, Integer>> getLeaderboard() {
-        for (Entry<String, Map<String, String>> e : users.entrySet()) {
-            leaderboard.put(e.getKey(), new HashMap<>());
-        }
-        for (Entry<String, Map<String, Integer>> e : scorecards.entrySet()) {
-            leaderboard.get(e.getKey()).putAll(e.getValue());
+    private void apply(WalRecord record) {
+        switch (record.getOp()) {
+            case WalRecord.INCREMENT:
+                scoreCard(record.getUser()).add(record.getPool(), record.getPoints());
+                break;
+            case WalRecord.EVENT: // only written by older versions
+                eventStore.append(Event.fromMap(record.getData()));
+                break;
+            case WalRecord.TASK:
+                getTasks().add(record.getData());
+                break;
+            case WalRecord.USER:
+                getUsers().put(record.getUser(), record.getData());
+                break;
+            case WalRecord.SCORECARD:
+                getScoreCards().put(record.getUser(), new ScoreCard(record.getScores()));
+                break;
+            case WalRecord.DEDUP:
+                dedup.add(record.getKey());
+                break;
+            default:
+                log.warn("Unknown write-ahead log record type [" + record.getOp() + "]");
         }
-        return leaderboard;
+    }
+
+    @JsonIgnore
+    public Map<String, Map<String, Integer>> getLeaderboard() {
+        return board.getLeaderboard();
     }
 
     private Map<String, Map<String, String>> scorecardHistory = new HashMap<>();
+    private boolean legacyKeysImported;
 
     public Map<String, Map<String, String>> getScorecardHistory() {
         if (null == scorecardHistory) scorecardHistory = new HashMap<>();
         return scorecardHistory;
     }
 
+    // checkpoint: write the full snapshot, after which the write-ahead log is no longer needed
     public synchronized void save() {
-        save(storageFile);
+        checkpointLock.writeLock().lock();
+        try {
+            eventStore.flush();
+            dedup.save();
+            walPosition = wal.getPosition();
+            if (save(storageFile)) wal.truncate();
+        } catch (IOException e) {
+            log.error("Failed to flush events or duplicate check keys, keeping the write-ahead log", e);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
     }
 
-    public synchronized void save(File storeHere) {
+    public synchronized boolean save(File storeHere) {
         try {
             long s = System.currentTimeMillis();
             if (!storeHere.getParentFile().exists())
                 storeHere.getParentFile().mkdirs();
-            IOUtils2.writeAndClose(objectMapper.writerWithDefaultPrettyPrinter()
-                    .writeValueAsBytes(this), new FileOutputStream(storeHere));
+            snapshotWriter.write(storeHere, this);
             log.info("Database saved (" + (System.currentTimeMillis() - s) + "ms, size=" + storeHere.length() + ")");
-        } catch (FileNotFoundException e) {
-            log.error("Failed to save database", e);
+            return true;
         } catch (IOException e) {
             log.error("Failed to save database", e);
         }
+        return false;
     }
 
-    public void load() {
+    // the last checkpointed snapshot re-encoded as json, whatever format it is stored in
+    public void exportSnapshot(OutputStream out) throws IOException {
+        snapshotReader.copyAsJson(storageFile, out);
+    }
+
+    // replace the live contents with another (detached) instance and checkpoint it
+    public synchronized void restore(Database2 other) {
+        checkpointLock.writeLock().lock();
         try {
+            this.scorecards = concurrentScoreCards(other.scorecards);
+            this.users = null != other.users ? new ConcurrentHashMap<>(other.users) : null;
+            this.tasks = other.tasks;
+            this.created = other.created;
+            this.version = other.version;
+            this.scorecardHistory = other.scorecardHistory;
+            publishAll();
+            save();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    // archives the year's totals and belts under priorYear, then clears points, belts and outstanding
+    // tasks and checkpoints. It holds the checkpoint lock exclusively, so no increment lands part way
+    // through or between the archive and the reset. False if priorYear has already been archived
+    public synchronized boolean yearEnd(String priorYear) {
+        checkpointLock.writeLock().lock();
+        try {
+            if (getScorecardHistory().containsKey(priorYear)) return false;
+
+            getTasks().clear();
+
+            // "belt|total" per user with points, highest total first
+            List<Entry<String, Integer>> totals = new ArrayList<>();
+            for (Entry<String, Map<String, Integer>> e : getScoreCards().entrySet()) {
+                if (null != e.getValue() && e.getValue().size() > 0)
+                    totals.add(Map.entry(e.getKey(), ChartsController.total(e.getValue())));
+            }
+            totals.sort(Entry.<String, Integer>comparingByValue().reversed());
+            Map<String, String> history = new LinkedHashMap<>();
+            for (Entry<String, Integer> e : totals) {
+                Map<String, String> userInfo = getUsers().get(e.getKey());
+                history.put(e.getKey(), (null != userInfo ? userInfo.get("level") : null) + "|" + e.getValue());
+            }
+            getScorecardHistory().put(priorYear, history);
+
+            getScoreCards().clear();
+            getUsers().replaceAll((userId, userInfo) -> {
+                Map<String, String> next = new HashMap<>(userInfo);
+                next.put("level", "ZERO");
+                next.remove("levelChanged");
+                return next;
+            });
+
+            publishAll();
+            save();
+            return true;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    public synchronized void load() {
+        try {
+            eventStore.load();
+            dedup.load();
             if (!storageFile.exists()) {
                 log.warn("No database file found, creating new/blank/default one...");
-                save();
-                return;
+                walPosition = 0;
+                if (wal.replay(walPosition, this::apply) <= 0) {
+                    save();
+                    return;
+                }
+            } else {
+                log.info("Database loading (size=" + storageFile.length() + ")");
+                long s = System.currentTimeMillis();
+                scorecards = null;
+                users = null;
+                tasks = null;
+                version = null;
+                scorecardHistory = null;
+                walPosition = 0;
+                legacyKeysImported = false;
+                List<Event> legacyEvents = new ArrayList<>();
+                snapshotReader.read(storageFile, new SnapshotReader.Target() {
+                    public void field(String name, JsonParser parser) throws IOException {
+                        readField(name, parser);
+                    }
+
+                    public void events(List<Event> loaded) {
+                        legacyEvents.addAll(loaded);
+                    }
+                });
+                log.info("Database loaded (" + (System.currentTimeMillis() - s) + "ms)");
+                if (!legacyEvents.isEmpty()) {
+                    eventStore.importLegacy(legacyEvents);
+                    wal.replay(walPosition, this::apply);
+                } else if (wal.replay(walPosition, this::apply) <= 0 && !legacyKeysImported) {
+                    return;
+                }
             }
-            log.info("Database loading (size=" + storageFile.length() + ")");
-            String content = IOUtils2.toStringAndClose(new FileInputStream(storageFile));
-            Database2 loaded = objectMapper.readValue(content, Database2.class);
-            this.scorecards = loaded.scorecards;
-            this.users = loaded.users;
-            this.events = loaded.events;
-            this.tasks = loaded.tasks;
-            this.created = loaded.created;
-            this.version = loaded.version;
-            this.scorecardHistory = loaded.scorecardHistory;
+            // compact whatever was replayed into a fresh snapshot
+            save();
         } catch (FileNotFoundException e) {
             log.error("Database file not found", e);
         } catch (IOException e) {
             log.error("Failed to load database", e);
+        } finally {
+            publishAll();
         }
     }
-}
 
+    private void readField(String name, JsonParser parser) throws IOException {
+        switch (name) {
+            case "scoreCards": // the name the getter serializes as
+            case "scorecards":
+                scorecards = new ConcurrentHashMap<>(objectMapper.readValue(parser, SCORECARDS_TYPE));
+                break;
+            case "users":
+                users = new ConcurrentHashMap<>(objectMapper.readValue(parser, USERS_TYPE));
+                break;
+            case "tasks":
+                tasks = objectMapper.readValue(parser, TASKS_TYPE);
+                break;
+            case "scorecardHistory":
+                scorecardHistory = objectMapper.readValue(parser, USERS_TYPE);
+                break;
+            case "pointsDuplicateChecker": // now kept by the DuplicateChecker, moved there on the next checkpoint
+                dedup.importLegacy(objectMapper.readValue(parser, KEYS_TYPE));
+                legacyKeysImported = true;
+                break;
+            case "created":
+                created = parser.getValueAsString();
+                break;
+            case "version":
+                version = parser.getValueAsString();
+                break;
+            case "walPosition":
+                walPosition = parser.getValueAsLong();
+                break;
+            default:
+                parser.skipChildren();
+        }
+    }
+
+    private static Map<String, Map<String, Integer>> concurrentScoreCards(Map<String, Map<String, Integer>> scorecards) {
+        if (null == scorecards) return null;
+        Map<String, Map<String, Integer>> result = new ConcurrentHashMap<>();
+        for (Entry<String, Map<String, Integer>> e : scorecards.entrySet())
+            result.put(e.getKey(), ScoreCard.of(e.getValue()));
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package com.redhat.sso.ninja;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.jboss.resteasy.reactive.RestQuery;
+
+import com.redhat.sso.ninja.events.Event;
+import com.redhat.sso.ninja.events.EventPage;
+import com.redhat.sso.ninja.events.EventQuery;
+import com.redhat.sso.ninja.events.EventStore;
+import com.redhat.sso.ninja.export.Exporter;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+@Path("/api/v2/events")
+public class EventsController {
+    private static final int DEFAULT_LIMIT = 10000;
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    EventStore eventStore;
+
+    @Inject
+    Exporter exporter;
+
+    // events.html: the events, newest first, back to daysOld ago (or as far as the segments go).
+    // Filters are AND-ed, 'user', 'events' (types) and 'pool' take comma separated lists. The total number of matches goes in X-Total-Count,
+    // the cursor for the next page (pass it back as 'cursor') in X-Next-Cursor when there is one
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getEvents(@RestQuery String user, @RestQuery String manager, @RestQuery Integer daysOld,
+            @RestQuery String events, @RestQuery String pool, @RestQuery Long cursor, @RestQuery Integer limit) throws IOException {
+        EventQuery query = query(user, manager, daysOld, events, pool)
+                .before(cursor)
+                .limit(null != limit ? limit : DEFAULT_LIMIT);
+        EventPage page = eventStore.query(query);
+        Response.ResponseBuilder response = Response.ok(page.getEvents())
+                .header("X-Total-Count", page.getTotal())
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Expose-Headers", "X-Total-Count, X-Next-Cursor");
+        if (null != page.getNext()) response.header("X-Next-Cursor", page.getNext());
+        return response.build();
+    }
+
+    // the same filters as above, every matching event (newest first) streamed as it's read, see EventStore.export
+    @GET
+    @Path("/export/{format}")
+    public Response exportEvents(@PathParam("format") String format, @RestQuery String user, @RestQuery String manager,
+            @RestQuery Integer daysOld, @RestQuery String events, @RestQuery String pool) {
+        EventQuery query = query(user, manager, daysOld, events, pool);
+        return exporter.export(format, "events", rows -> {
+            rows.header("timestamp", "type", "user", "text", "points", "source", "pool");
+            eventStore.export(query, e -> rows.row(e.getTimestamp(), e.getType(), e.getUser(), e.getText(), e.hasPoints() ? e.getPointsValue() : null, e.getSource(), e.getPool()));
+        });
+    }
+
+    EventQuery query(String user, String manager, Integer daysOld, String types, String pool) {
+        Set<String> users = split(user);
+        if (null != manager && !manager.isBlank()) {
+            Set<String> reports = new HashSet<>();
+            for (Entry<String, Map<String, String>> e : database.getBoard().getUsers().entrySet()) {
+                if (manager.trim().equals(e.getValue().get("manager"))) reports.add(e.getKey());
+            }
+            if (null != users) {
+                users.retainAll(reports);
+            } else {
+                users = reports;
+            }
+        }
+        return new EventQuery()
+                .users(users)
+                .types(split(types))
+                .pools(split(pool))
+                .since(null != daysOld ? Event.currentMinute() - daysOld * 24 * 60 : null);
+    }
+
+    // null (no filter) when blank
+    private static Set<String> split(String values) {
+        if (null == values || values.isBlank()) return null;
+        Set<String> result = new HashSet<>();
+        for (String value : values.split(","))
+            if (!value.isBlank()) result.add(value.trim());
+        return result.isEmpty() ? null : result;
+    }
+}
@@ -0,0 +1,91 @@
+package com.redhat.sso.ninja;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.redhat.sso.ninja.ingest.PointsIncrement;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+@Path("/api/points")
+public class IngestController {
+    private static final Logger log = Logger.getLogger(IngestController.class);
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "ninja.ingest.max-items", defaultValue = "100000")
+    int maxItems;
+
+    // For scripts and connectors: a JSON array, or newline delimited JSON, of {pool, user, points,
+    // key, params} items, parsed as it streams in. Nothing is applied unless the whole body parses,
+    // then the batch is applied at once (see Database2.incrementAll). Returns a count per outcome
+    // and each item's outcome, in the order they were sent
+    @POST
+    @Path("/bulk")
+    @Consumes({ MediaType.APPLICATION_JSON, "application/x-ndjson", MediaType.TEXT_PLAIN })
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response bulkIncrement(InputStream body) {
+        List<PointsIncrement> items = new ArrayList<>();
+        ObjectReader reader = objectMapper.readerFor(PointsIncrement.class);
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) token = parser.nextToken();
+            while (null != token && token != JsonToken.END_ARRAY) {
+                if (items.size() >= maxItems)
+                    return Response.status(413).entity("More than " + maxItems + " items, send them in smaller batches").build();
+                items.add(reader.readValue(parser));
+                token = parser.nextToken();
+            }
+        } catch (IOException e) {
+            log.warnf("Rejected bulk increment, item %d is unreadable: %s", items.size(), e.getMessage());
+            return Response.status(400).entity("Unable to read item " + items.size() + ": " + e.getMessage()).build();
+        }
+
+        List<PointsIncrement.Status> statuses = database.incrementAll(items);
+        database.commit();
+
+        Map<PointsIncrement.Status, Integer> counts = new EnumMap<>(PointsIncrement.Status.class);
+        List<Map<String, Object>> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            PointsIncrement.Status status = statuses.get(i);
+            counts.merge(status, 1, Integer::sum);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            result.put("status", status.name().toLowerCase());
+            if (status == PointsIncrement.Status.INVALID) {
+                String why = items.get(i).validate();
+                result.put("message", null != why ? why : "unable to apply, see the server log");
+            }
+            results.add(result);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        for (PointsIncrement.Status status : PointsIncrement.Status.values())
+            response.put(status.name().toLowerCase(), counts.getOrDefault(status, 0));
+        response.put("results", results);
+        return Response.status(200).entity(response).build();
+    }
+}
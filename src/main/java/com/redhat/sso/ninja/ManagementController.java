@@ -6,27 +6,35 @@ import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.RestQuery;
 
-import com.redhat.sso.ninja.chart.ChartJson;
-import com.redhat.sso.ninja.chart.DataSet;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.redhat.sso.ninja.chart.Charts;
+import com.redhat.sso.ninja.dedup.DuplicateChecker;
+import com.redhat.sso.ninja.events.Event;
+import com.redhat.sso.ninja.events.EventStore;
+import com.redhat.sso.ninja.export.Exporter;
+import com.redhat.sso.ninja.graphs.GraphPublisher;
+import com.redhat.sso.ninja.scoring.BoardSnapshot;
+import com.redhat.sso.ninja.scoring.ScorecardTable;
+import com.redhat.sso.ninja.scoring.ScorecardTables;
+import com.redhat.sso.ninja.scripts.ScriptRunner;
 import com.redhat.sso.ninja.utils.LevelsUtil;
-import com.redhat.sso.ninja.utils.MapBuilder;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
+import jakarta.inject.Named;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
@@ -34,8 +42,10 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 
 @Path("/api")
 public class ManagementController {
@@ -50,8 +60,40 @@ public class ManagementController {
     @Inject
     LevelsUtil levelsUtil;
 
+    @Inject
+    EventStore eventStore;
+
+    @Inject
+    ScorecardTables scorecardTables;
+
+    @Inject
+    Exporter exporter;
+
+    @Inject
+    DuplicateChecker duplicateChecker;
+
+    @Inject
+    ScriptRunner scriptRunner;
+
+    @Inject
+    Charts charts;
+
+    @Inject
+    GraphPublisher graphPublisher;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    private ObjectWriter compactWriter;
+
+    @PostConstruct
+    void init() {
+        compactWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
     public static boolean isLoginEnabled(Config config) {
-        return "true".equalsIgnoreCase(config.getOptions().get("login.enabled"));
+        return config.getSnapshot().isLoginEnabled();
     }
 
     @GET
@@ -63,6 +105,8 @@ public class ManagementController {
         status.put("application", "ninja-board");
         status.put("version", "1.0.0");
         status.put("timestamp", new Date().toString());
+        status.put("duplicateCheck", duplicateChecker.getStats());
+        status.put("graphs", graphPublisher.getStats());
         return Response.status(200).entity(status).build();
     }
 
@@ -121,53 +165,9 @@ public class ManagementController {
     public Response yearEnd(@PathParam("priorYear") String priorYear) throws IOException {
         log.info("Year Ending for - " + priorYear + ". Note: This will lose some data (such as point buckets) as it archives the current years information");
 
-        if (database.getScorecardHistory().containsKey(priorYear))
+        if (!database.yearEnd(priorYear))
             return Response.status(400).entity("Can't do that - the key '" + priorYear + "' already exists!").build();
 
-        // clear outstanding tasks
-        database.getTasks().clear();
-
-        // cleanup scorecards and backup into a year dated bucket
-        Map<String, String> history = new LinkedHashMap<>();
-        Map<String, Integer> totals = new HashMap<>();
-        for (Entry<String, Map<String, Integer>> e : database.getScoreCards().entrySet()) {
-            if (null != e.getValue() && e.getValue().size() > 0) {
-                String belt = database.getUsers().get(e.getKey()).get("level");
-                String total = String.valueOf(ChartsController.total(e.getValue()));
-                history.put(e.getKey(), belt + "|" + total);
-                totals.put(e.getKey(), Integer.valueOf(total));
-            }
-        }
-
-        // reorder by total
-        List<Entry<String, Integer>> list = new LinkedList<>(totals.entrySet());
-        Collections.sort(list, new Comparator<Map.Entry<String, Integer>>() {
-            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
-                return (o2.getValue()).compareTo(o1.getValue());
-            }
-        });
-        HashMap<String, Integer> sortedTotals = new LinkedHashMap<>();
-        for (Entry<String, Integer> e : list)
-            sortedTotals.put(e.getKey(), e.getValue());
-
-        Map<String, String> sortedHistory = new LinkedHashMap<>();
-        for (Entry<String, Integer> e : sortedTotals.entrySet())
-            sortedHistory.put(e.getKey(), history.get(e.getKey()));
-
-        // write the history for the 'priorYear'
-        database.getScorecardHistory().put(priorYear, sortedHistory);
-
-        // clear current points
-        database.getScoreCards().clear();
-
-        // clear current belt status
-        for (Entry<String, Map<String, String>> e : database.getUsers().entrySet()) {
-            e.getValue().put("level", "ZERO");
-            e.getValue().remove("levelChanged");
-        }
-
-        database.save();
-
         return Response.status(200).entity("OK, it's done!").build();
     }
 
@@ -206,8 +206,7 @@ public class ManagementController {
     @Produces(MediaType.APPLICATION_JSON)
     public Response configSave(Config newConfig) {
         log.info("Saving config");
-        newConfig.save();
-        config.reload();
+        config.update(newConfig); // subscribers pick up the changes, see ConfigChanged
         return Response.status(200).entity(config).build();
     }
 
@@ -215,16 +214,19 @@ public class ManagementController {
     @Path("/scripts/runNow")
     @Produces(MediaType.TEXT_PLAIN)
     public Response runScriptsNow() {
-        // TODO: Implement Heartbeat2.runOnceAsync()
+        boolean alreadyRunning = scriptRunner.isRunning();
+        scriptRunner.runAll().thenRun(graphPublisher::publish);
         log.debug("Scripts run started - check logs for results");
-        return Response.status(200).entity("RUNNING").build();
+        return Response.status(200).entity(alreadyRunning ? "ALREADY RUNNING" : "RUNNING").build();
     }
 
     @GET
     @Path("/scripts/publishGraphs")
     @Produces(MediaType.TEXT_PLAIN)
     public Response pushGraphDataOnly() {
-        // TODO: Implement graph publishing
+        if (!graphPublisher.isEnabled())
+            return Response.status(200).entity("DISABLED (no ninja.graphs.proxy)").build();
+        graphPublisher.publish(); // built and sent on the publisher's thread
         return Response.status(200).entity("RUNNING").build();
     }
 
@@ -232,7 +234,108 @@ public class ManagementController {
     @Path("/database/get")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getDatabase() {
-        return Response.status(200).entity(database).build();
+        // written section by section as it's sent; events aren't part of it, see /database/events
+        BoardSnapshot board = database.getBoard();
+        return streamJson(json -> {
+            json.writeStartObject();
+            writeField(json, "users", board.getUsers());
+            writeField(json, "tasks", database.copyTasks());
+            json.writeStringField("created", database.getCreated());
+            json.writeStringField("version", database.getVersion());
+            writeField(json, "scorecardHistory", board.getScorecardHistory());
+            writeField(json, "scoreCards", board.getScoreCards());
+            json.writeEndObject();
+        });
+    }
+
+    @GET
+    @Path("/database/users")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDatabaseUsers() {
+        BoardSnapshot board = database.getBoard();
+        return streamJson(json -> compactWriter.writeValue(json, board.getUsers()));
+    }
+
+    @GET
+    @Path("/database/scorecards")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDatabaseScorecards() {
+        BoardSnapshot board = database.getBoard();
+        return streamJson(json -> compactWriter.writeValue(json, board.getScoreCards()));
+    }
+
+    @GET
+    @Path("/database/history")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDatabaseHistory() {
+        BoardSnapshot board = database.getBoard();
+        return streamJson(json -> compactWriter.writeValue(json, board.getScorecardHistory()));
+    }
+
+    @GET
+    @Path("/database/tasks")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDatabaseTasks() {
+        List<Map<String, String>> tasks = database.copyTasks();
+        return streamJson(json -> compactWriter.writeValue(json, tasks));
+    }
+
+    // a page of events: the current month newest first by default (the cursor is an event sequence
+    // number), or an older month's segment in the order it was written (the cursor is an offset)
+    @GET
+    @Path("/database/events")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDatabaseEvents(@RestQuery String month, @RestQuery Long cursor, @RestQuery Integer limit) throws IOException {
+        int pageSize = null != limit && limit > 0 ? Math.min(limit, 10000) : 1000;
+        List<Event> events = new ArrayList<>(pageSize);
+        Long next;
+        if (null == month || month.equals(eventStore.getHotMonth())) {
+            long seq = eventStore.getHot().newestBefore(null != cursor ? cursor : Long.MAX_VALUE, pageSize, events);
+            next = seq < 0 ? null : seq;
+        } else if (!month.matches("\\d{4}-\\d{2}")) {
+            return Response.status(400).entity("month must be yyyy-MM").build();
+        } else {
+            long offset = null != cursor ? cursor : 0;
+            long read = eventStore.readSegment(month, offset, pageSize, events::add);
+            next = read < pageSize ? null : offset + read;
+        }
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("month", null != month ? month : eventStore.getHotMonth());
+        page.put("months", eventStore.getMonths());
+        page.put("next", next);
+        page.put("events", events);
+        return streamJson(json -> compactWriter.writeValue(json, page));
+    }
+
+    private interface JsonBody {
+        void write(JsonGenerator json) throws IOException;
+    }
+
+    // chunked as it's written, nothing is built up in memory first
+    private Response streamJson(JsonBody body) {
+        StreamingOutput stream = out -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+                json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                body.write(json);
+            }
+        };
+        return Response.status(200).type(MediaType.APPLICATION_JSON_TYPE).entity(stream).build();
+    }
+
+    private void writeField(JsonGenerator json, String name, Object value) throws IOException {
+        json.writeFieldName(name);
+        compactWriter.writeValue(json, value);
+        json.flush();
+    }
+
+    @GET
+    @Path("/database/export")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exportDatabase() {
+        StreamingOutput stream = out -> database.exportSnapshot(out);
+        return Response.status(200)
+                .header("Content-Disposition", "attachment; filename=\"database2.json\"")
+                .entity(stream).build();
     }
 
     @POST
@@ -241,8 +344,7 @@ public class ManagementController {
     @Produces(MediaType.APPLICATION_JSON)
     public Response databaseSave(Database2 db) {
         log.info("Saving database");
-        db.save();
-        database.load();
+        database.restore(db);
         log.info("New Database Saved");
         return Response.status(200).entity(database).build();
     }
@@ -251,30 +353,30 @@ public class ManagementController {
     @Path("/users/{user}")
     @Consumes(MediaType.APPLICATION_JSON)
     public Response updateUserProperty(@PathParam("user") String user, Map<String, String> values) {
-        Map<String, String> userInfo = database.getUsers().get(user);
-        if (null == userInfo)
-            return Response.status(404).entity("User info for '" + user + "' not found").build();
-
-        for (Entry<String, String> e : values.entrySet()) {
-            String existingValue = userInfo.get(e.getKey());
-            if ("displayName".equals(e.getKey()) || e.getKey().endsWith("Id")) {
-                if (null == existingValue) {
-                    userInfo.put(e.getKey(), e.getValue());
-                    database.addEvent("User Update", user, e.getKey() + " added as " + e.getValue());
-                } else {
-                    if (!existingValue.equals(e.getValue())) {
+        Map<String, String> updated = database.updateUser(user, userInfo -> {
+            for (Entry<String, String> e : values.entrySet()) {
+                String existingValue = userInfo.get(e.getKey());
+                if ("displayName".equals(e.getKey()) || e.getKey().endsWith("Id")) {
+                    if (null == existingValue) {
                         userInfo.put(e.getKey(), e.getValue());
-                        database.addEvent("User Update", user, e.getKey() + " changed from " + existingValue + " to " + e.getValue());
+                        database.addEvent("User Update", user, e.getKey() + " added as " + e.getValue());
+                    } else {
+                        if (!existingValue.equals(e.getValue())) {
+                            userInfo.put(e.getKey(), e.getValue());
+                            database.addEvent("User Update", user, e.getKey() + " changed from " + existingValue + " to " + e.getValue());
+                        }
+                    }
+                } else {
+                    if (e.getKey().contains("level")) {
+                        log.warn("Suspicious Activity: User [" + user + "] attempting to update their level from [" + existingValue + "] to [" + e.getValue() + "]");
                     }
-                }
-            } else {
-                if (e.getKey().contains("level")) {
-                    log.warn("Suspicious Activity: User [" + user + "] attempting to update their level from [" + existingValue + "] to [" + e.getValue() + "]");
                 }
             }
-        }
+        });
+        if (null == updated)
+            return Response.status(404).entity("User info for '" + user + "' not found").build();
 
-        database.save();
+        database.commit();
         return Response.status(200).build();
     }
 
@@ -284,8 +386,9 @@ public class ManagementController {
     public Response getScorecard(@PathParam("user") String user) {
         log.debug("Request made for user [" + user + "]");
 
-        Map<String, Integer> scorecard = database.getScoreCards().get(user);
-        Map<String, String> userInfo = database.getUsers().get(user);
+        BoardSnapshot board = database.getBoard();
+        Map<String, Integer> scorecard = board.getScoreCards().get(user);
+        Map<String, String> userInfo = board.getUsers().get(user);
 
         log.debug(user + " user data for scorecards " + (scorecard != null ? "found" : "NOT FOUND!"));
         log.debug(user + " user data for userInfo " + (userInfo != null ? "found" : "NOT FOUND!"));
@@ -306,21 +409,7 @@ public class ManagementController {
     @Path("/scorecard/breakdown/{user}")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getUserBreakdown(@PathParam("user") String user) {
-        Map<String, Integer> scorecard = database.getScoreCards().get(user);
-
-        ChartJson chart = new ChartJson();
-        chart.getDatasets().add(new DataSet());
-        chart.getDatasets().get(0).setBorderWidth(1);
-        if (null != scorecard) {
-            for (Entry<String, Integer> s : scorecard.entrySet()) {
-                chart.getLabels().add(s.getKey());
-                chart.getDatasets().get(0).getData().add(s.getValue());
-            }
-        } else {
-            chart.getLabels().add("No Points");
-            chart.getDatasets().get(0).getData().add(0);
-        }
-        return Response.status(200).entity(chart).build();
+        return Response.status(200).entity(charts.breakdown(database.getBoard(), user)).build();
     }
 
     @GET
@@ -329,8 +418,9 @@ public class ManagementController {
     public Response getScorecardSummary(@PathParam("user") String user) {
         log.debug("Request made for user [" + user + "]");
 
-        Map<String, Integer> scorecard = database.getScoreCards().get(user);
-        Map<String, String> userInfo = database.getUsers().get(user);
+        BoardSnapshot board = database.getBoard();
+        Map<String, Integer> scorecard = board.getScoreCards().get(user);
+        Map<String, String> userInfo = board.getUsers().get(user);
 
         log.debug(user + " user data for scorecards " + (scorecard != null ? "found" : "NOT FOUND!"));
         log.debug(user + " user data for userInfo " + (userInfo != null ? "found" : "NOT FOUND!"));
@@ -369,103 +459,74 @@ public class ManagementController {
 
         String username = (String) map.get("userId");
 
-        Map<String, String> userInfo = database.getUsers().get(username);
         Map<String, Integer> scorecard = database.getScoreCards().get(username);
 
-        for (String k : map.keySet()) {
-            if (!k.equals("userId")) {
-                if (userInfo.containsKey(k)) {
-                    if (!userInfo.get(k).equals(map.get(k))) {
-                        log.debug("Setting 'userInfo." + k + "' to " + (String) map.get(k));
-                        database.addEvent("User Update", user, k + " changed from " + userInfo.get(k) + " to " + (String) map.get(k));
-                        userInfo.put(k, (String) map.get(k));
-                    }
-                } else if (scorecard.containsKey(k)) {
-                    if (!scorecard.get(k).equals(map.get(k))) {
-                        log.debug("Setting 'scorecard." + k + "' to " + (String) map.get(k));
-                        database.addEvent("User Update", user, k + " changed from " + scorecard.get(k) + " to " + (String) map.get(k));
-                        scorecard.put(k, Integer.parseInt((String) map.get(k)));
-                    }
-                } else {
-                    if (!userInfo.get(k).equals(map.get(k))) {
+        Map<String, String> updated = database.updateUser(username, userInfo -> {
+            for (String k : map.keySet()) {
+                if (!k.equals("userId")) {
+                    if (userInfo.containsKey(k)) {
+                        if (!userInfo.get(k).equals(map.get(k))) {
+                            log.debug("Setting 'userInfo." + k + "' to " + (String) map.get(k));
+                            database.addEvent("User Update", user, k + " changed from " + userInfo.get(k) + " to " + (String) map.get(k));
+                            userInfo.put(k, (String) map.get(k));
+                        }
+                    } else if (null != scorecard && scorecard.containsKey(k)) {
+                        if (!scorecard.get(k).equals(map.get(k))) {
+                            log.debug("Setting 'scorecard." + k + "' to " + (String) map.get(k));
+                            database.addEvent("User Update", user, k + " changed from " + scorecard.get(k) + " to " + (String) map.get(k));
+                            scorecard.put(k, Integer.parseInt((String) map.get(k)));
+                        }
+                    } else {
                         log.debug("Setting 'userInfo." + k + "' to " + (String) map.get(k));
                         database.addEvent("User Update", user, k + " set as " + (String) map.get(k));
                         userInfo.put(k, (String) map.get(k));
                     }
                 }
             }
-        }
+        });
+        if (null == updated)
+            return Response.status(404).entity("User info for '" + username + "' not found").build();
 
-        database.save();
+        database.scorecardUpdated(username);
+        database.commit();
         return Response.status(200).entity("OK").build();
     }
 
     @GET
     @Path("/scorecards")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getScorecards() {
-        List<Map<String, Object>> data = new ArrayList<>();
-
-        Set<String> fields = new HashSet<>();
-
-        for (Entry<String, Map<String, String>> u : database.getUsers().entrySet()) {
-            String username = u.getKey();
-            Map<String, String> userInfo = u.getValue();
-            Map<String, Integer> scorecard = database.getScoreCards().get(u.getKey());
-
-            Map<String, Object> row = new HashMap<>();
-            row.put("id", username);
-            row.put("name", userInfo.containsKey("displayName") ? userInfo.get("displayName") : username);
-            int total = 0;
-            if (null != scorecard) {
-                for (Entry<String, Integer> s : scorecard.entrySet()) {
-                    row.put(s.getKey().replaceAll("\\.", " "), s.getValue());
-                    total += s.getValue();
-                    fields.add(s.getKey().replaceAll("\\.", " "));
-                }
-                row.put("total", total);
-                row.put("level", userInfo.get("level"));
-            } else {
-                row.put("total", 0);
-                row.put("level", "ZERO");
-            }
-
-            // points to next level
-            if (null == userInfo.get("level") || null == levelsUtil.getNextLevel(userInfo.get("level"))) {
-                log.error("Invalid level for user " + row.get("name") + " : " + userInfo);
-                row.put("pointsToNextLevel", 0);
-            } else {
-                Integer pointsToNextLevel = levelsUtil.getNextLevel(userInfo.get("level")).getLeft() - total;
-                if (pointsToNextLevel < 0) pointsToNextLevel = 0;
-                row.put("pointsToNextLevel", pointsToNextLevel);
-            }
-
-            data.add(row);
+    public Response getScorecards(@RestQuery Integer draw, @RestQuery Integer start, @RestQuery Integer length,
+            @QueryParam("order[0][column]") Integer orderColumn, @QueryParam("order[0][dir]") String orderDir,
+            @QueryParam("search[value]") String search) {
+        ScorecardTable table = scorecardTables.get();
+        Map<String, Object> wrapper = new LinkedHashMap<>();
+        wrapper.put("columns", table.getColumns());
+
+        if (null == draw) { // not a DataTables server-side request: every row, in no particular order
+            wrapper.put("data", table.rows(table.query(null, -1, false), 0, -1));
+            return Response.status(200).entity(wrapper).build();
         }
 
-        // fill in the missing points fields with zero's
-        for (Map<String, Object> e : data) {
-            for (String field : fields) {
-                if (!e.containsKey(field)) {
-                    e.put(field, 0);
-                }
-            }
-        }
-
-        Map<String, Object> wrapper = new HashMap<>();
-        List<Map<String, String>> columns = new ArrayList<>();
-        columns.add(new MapBuilder<String, String>().put("title", "Name").put("data", "name").build());
-        columns.add(new MapBuilder<String, String>().put("title", "Total").put("data", "total").build());
-        columns.add(new MapBuilder<String, String>().put("title", "Ninja Belt").put("data", "level").build());
-        columns.add(new MapBuilder<String, String>().put("title", "Points to next level").put("data", "pointsToNextLevel").build());
-
-        for (String field : fields)
-            columns.add(new MapBuilder<String, String>().put("title", field).put("data", field).build());
-
-        wrapper.put("columns", columns);
-        wrapper.put("data", data);
-
+        int[] rows = table.query(search, null != orderColumn ? orderColumn : 1, !"asc".equalsIgnoreCase(orderDir));
+        wrapper.put("draw", draw);
+        wrapper.put("recordsTotal", table.size());
+        wrapper.put("recordsFiltered", rows.length);
+        wrapper.put("data", table.rows(rows, null != start ? start : 0, null != length ? length : -1));
         return Response.status(200).entity(wrapper).build();
     }
+
+    // scorecards.html export links, honouring the same search and ordering as the table (by total by default)
+    @GET
+    @Path("/scorecards/export/{format}")
+    public Response exportScorecards(@PathParam("format") String format, @QueryParam("order[0][column]") Integer orderColumn,
+            @QueryParam("order[0][dir]") String orderDir, @QueryParam("search[value]") String search) {
+        ScorecardTable table = scorecardTables.get();
+        int[] rows = table.query(search, null != orderColumn ? orderColumn : 1, !"asc".equalsIgnoreCase(orderDir));
+        return exporter.export(format, "scorecards", writer -> {
+            writer.header(table.getExportHeader());
+            for (int row : rows)
+                writer.row(table.getExportRow(row));
+        });
+    }
 }
 
@@ -15,12 +15,16 @@ public class StartupBean {
     @Inject
     Config config;
 
+    @Inject
+    ConfigWatcher configWatcher;
+
     @Inject
     Database2 database;
 
     void onStart(@Observes StartupEvent ev) {
         log.info("Initializing Ninja Board application...");
         config.load();
+        configWatcher.start();
         database.load();
         log.info("Ninja Board application started successfully");
     }
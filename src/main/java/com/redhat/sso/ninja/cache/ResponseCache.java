@@ -0,0 +1,103 @@
+package com.redhat.sso.ninja.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.redhat.sso.ninja.ConfigChanged;
+import com.redhat.sso.ninja.Database2;
+import com.redhat.sso.ninja.scoring.BoardSnapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+// Serialized responses of the polled chart endpoints, keyed by endpoint and parameters and
+// tagged with the board version they were built from (plus a generation bumped when the config
+// changes). A response is only rebuilt once a change has been published; clients get a strong
+// ETag and a 304 when their copy is still current. The process start time is part of the tag
+// since board versions start again from 1 after a restart
+@ApplicationScoped
+public class ResponseCache {
+    private static final Logger log = Logger.getLogger(ResponseCache.class);
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "ninja.cache.max-entries", defaultValue = "1000")
+    int maxEntries;
+
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private ObjectWriter writer;
+
+    private static class Cached {
+        final String etag;
+        final byte[] body;
+
+        Cached(String etag, byte[] body) {
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    // for changes that aren't published on the board, ie. new level thresholds
+    public void invalidate() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    void configChanged(@Observes ConfigChanged change) {
+        invalidate();
+    }
+
+    public Response respond(String key, String ifNoneMatch, Function<BoardSnapshot, Object> build) {
+        BoardSnapshot board = database.getBoard();
+        String etag = "\"" + epoch + "-" + board.getVersion() + "-" + generation.get() + "\"";
+        if (null != ifNoneMatch && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim())))
+            return headers(Response.notModified(), etag).build();
+
+        Cached cached = cache.get(key);
+        if (null == cached || !cached.etag.equals(etag)) {
+            try {
+                cached = new Cached(etag, writer.writeValueAsBytes(build.apply(board)));
+            } catch (JsonProcessingException e) {
+                log.error("Failed to serialize response for " + key, e);
+                return Response.status(500).build();
+            }
+            if (cache.size() >= maxEntries) cache.clear(); // keys include request parameters, keep it bounded
+            cache.put(key, cached);
+        }
+        return headers(Response.ok(cached.body, MediaType.APPLICATION_JSON_TYPE), etag).build();
+    }
+
+    private Response.ResponseBuilder headers(Response.ResponseBuilder builder, String etag) {
+        return builder
+                .header("ETag", etag)
+                .header("Cache-Control", "no-cache")
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Expose-Headers", "ETag");
+    }
+}
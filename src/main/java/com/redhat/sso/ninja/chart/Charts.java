@@ -0,0 +1,154 @@
+package com.redhat.sso.ninja.chart;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.scoring.BoardSnapshot;
+import com.redhat.sso.ninja.scoring.RankedIndex;
+import com.redhat.sso.ninja.utils.LevelsUtil;
+import com.redhat.sso.ninja.utils.MapBuilder;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// The chart datasets the UI polls for, built from one board version so each is consistent. Shared
+// by the chart endpoints and the GraphPublisher, which sends the same datasets to the graphs proxy
+@ApplicationScoped
+public class Charts {
+    private static final Logger log = Logger.getLogger(Charts.class);
+
+    // Belt colors
+    private static final Map<String, ColorPair> COLORS = new MapBuilder<String, ColorPair>()
+            .put("BLUE", new ColorPair("rgba(0,0,163,0.7)", "rgba(0,0,163,0.8)"))
+            .put("GREY", new ColorPair("rgba(130,130,130,0.7)", "rgba(130,130,130,0.8)"))
+            .put("RED", new ColorPair("rgba(163,0,0,0.7)", "rgba(163,0,0,0.8)"))
+            .put("BLACK", new ColorPair("rgba(20,20,20,0.7)", "rgba(20,20,20,0.8)"))
+            .put("GREEN", new ColorPair("rgba(65, 168, 95,0.7)", "rgba(65, 168, 95,0.8)"))
+            .put("GOLD", new ColorPair("rgba(250, 197, 28,0.7)", "rgba(250, 197, 28,0.8)"))
+            .put("ZERO", new ColorPair("rgba(255,255,255,0.7)", "rgba(255,255,255,0.8)"))
+            .build();
+
+    @Inject
+    LevelsUtil levelsUtil;
+
+    // the leaderboard, walking the ranking from the top so only what's shown is visited; with no
+    // max it's everyone except those still on ZERO
+    public ChartJson participants(BoardSnapshot board, Integer max) {
+        ChartJson c = new ChartJson();
+        c.setDatasets(new ArrayList<>());
+        int count = 0;
+        for (RankedIndex.Entry e : board.getRanking()) {
+            Map<String, String> userInfo = board.getUsers().get(e.getUserId());
+
+            if (null == max && userInfo != null && userInfo.get("level").equalsIgnoreCase("zero"))
+                continue;
+
+            c.getLabels().add(null != userInfo && userInfo.containsKey("displayName") ? userInfo.get("displayName") : e.getUserId());
+
+            String geo = userInfo != null && userInfo.containsKey("geo") ? userInfo.get("geo") : "Unknown";
+            String level = userInfo != null ? userInfo.get("level") : "none";
+            if (level == null) level = "none";
+            c.getCustom1().add(e.getUserId() + "|" + level.toLowerCase() + "|" + geo);
+
+            c.getCustom2().add(board.getBadges().getCustom2(e.getUserId())); // historical badges
+
+            if (c.getDatasets().size() <= 0) c.getDatasets().add(new DataSet());
+            c.getDatasets().get(0).getData().add(e.getTotal());
+            c.getDatasets().get(0).setBorderWidth(1);
+
+            String levelUpper = level.toUpperCase();
+            if (!COLORS.containsKey(levelUpper)) {
+                log.warn("Color [" + levelUpper + "] does not exist in our color mapping for charts - user = " + userInfo);
+                levelUpper = "ZERO";
+            }
+            ColorPair colorPair = COLORS.get(levelUpper);
+            c.getDatasets().get(0).getBackgroundColor().add(colorPair.first);
+            c.getDatasets().get(0).getBorderColor().add(colorPair.second);
+
+            count = count + 1;
+            if (null != max && count >= max) break;
+        }
+
+        return c;
+    }
+
+    // user dashboard: points earned against points still needed for the next belt
+    public ChartJson nextLevel(BoardSnapshot board, String user) {
+        boolean userExists = board.getScoreCards().containsKey(user);
+
+        ChartJson chart = new ChartJson();
+        chart.getLabels().add("Earned");
+        chart.getLabels().add("To Next Level");
+        chart.getDatasets().add(new DataSet());
+        chart.getDatasets().get(0).setBorderWidth(1);
+
+        if (userExists) {
+            int currentTotal = getTotalPoints(board, user);
+            int outOf = getPointsToNextLevel(board, user);
+            chart.getDatasets().get(0).getData().add(currentTotal);
+            chart.getDatasets().get(0).getData().add(outOf);
+        } else {
+            chart.getDatasets().get(0).getData().add(0);
+            chart.getDatasets().get(0).getData().add(levelsUtil.getBaseLevel().getLeft());
+        }
+
+        return chart;
+    }
+
+    // user dashboard: points per pool
+    public ChartJson breakdown(BoardSnapshot board, String user) {
+        Map<String, Integer> scorecard = board.getScoreCards().get(user);
+
+        ChartJson chart = new ChartJson();
+        chart.getDatasets().add(new DataSet());
+        chart.getDatasets().get(0).setBorderWidth(1);
+        if (null != scorecard) {
+            for (Entry<String, Integer> s : scorecard.entrySet()) {
+                chart.getLabels().add(s.getKey());
+                chart.getDatasets().get(0).getData().add(s.getValue());
+            }
+        } else {
+            chart.getLabels().add("No Points");
+            chart.getDatasets().get(0).getData().add(0);
+        }
+        return chart;
+    }
+
+    private int getTotalPoints(BoardSnapshot board, String username) {
+        Map<String, Integer> scorecard = board.getScoreCards().get(username);
+        int total = 0;
+        if (scorecard != null) {
+            for (Entry<String, Integer> s : scorecard.entrySet()) {
+                total += s.getValue();
+            }
+        }
+        return total;
+    }
+
+    private int getPointsToNextLevel(BoardSnapshot board, String username) {
+        int total = getTotalPoints(board, username);
+        Map<String, String> userInfo = board.getUsers().get(username);
+        if (userInfo != null && userInfo.get("level") != null) {
+            var nextLevel = levelsUtil.getNextLevel(userInfo.get("level"));
+            if (nextLevel != null) {
+                Integer pointsToNextLevel = nextLevel.getLeft() - total;
+                if (pointsToNextLevel < 0) pointsToNextLevel = 0;
+                return pointsToNextLevel;
+            }
+        }
+        return 0;
+    }
+
+    private static class ColorPair {
+        String first;
+        String second;
+
+        ColorPair(String first, String second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+}
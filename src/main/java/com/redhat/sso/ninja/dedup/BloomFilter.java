@@ -0,0 +1,96 @@
+package com.redhat.sso.ninja.dedup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Fixed size set membership with false positives but no false negatives. Sized up front for an
+// expected number of keys and false positive rate, it never grows: past that number of keys the
+// false positive rate simply rises. Bit positions come from two 64 bit hashes (double hashing)
+final class BloomFilter {
+    private final long[] bits;
+    private final long numBits;
+    private final int numHashes;
+    private int count;
+
+    private BloomFilter(long[] bits, int numHashes, int count) {
+        this.bits = bits;
+        this.numBits = (long) bits.length * Long.SIZE;
+        this.numHashes = numHashes;
+        this.count = count;
+    }
+
+    static BloomFilter create(int expectedKeys, double falsePositiveRate) {
+        long n = Math.max(1, expectedKeys);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int k = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+        return new BloomFilter(new long[(int) Math.min(Integer.MAX_VALUE - 8, (m + Long.SIZE - 1) / Long.SIZE)], k, 0);
+    }
+
+    void add(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 + 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    boolean mightContain(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 + 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // keys added, repeats included
+    int count() {
+        return count;
+    }
+
+    long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with a 64 bit mix so nearby keys spread across the array
+    private static long hash(String key) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(bits.length);
+        out.writeInt(numHashes);
+        out.writeInt(count);
+        for (long word : bits)
+            out.writeLong(word);
+    }
+
+    static BloomFilter read(DataInput in) throws IOException {
+        long[] bits = new long[in.readInt()];
+        int numHashes = in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = in.readLong();
+        return new BloomFilter(bits, numHashes, count);
+    }
+}
@@ -0,0 +1,182 @@
+package com.redhat.sso.ninja.dedup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.persistence.SnapshotWriter;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Keys of points already awarded (ie. pool + user + card/PR id), so re-reading a source doesn't
+// award them twice. Recent keys are held exactly, up to recent.days old and recent.max-keys
+// in number, oldest dropped first. Every key also goes into a Bloom filter; there are two
+// generations of those, the current one is retired after retention.days, so a key is remembered
+// for at least that long in a fixed amount of memory, at the cost of a small false positive rate
+// for keys no longer in the recent window. Kept in its own file, written at each checkpoint
+// (keys added in between are in the write-ahead log, see Database2)
+@ApplicationScoped
+public class DuplicateChecker {
+    private static final Logger log = Logger.getLogger(DuplicateChecker.class);
+    private static final int MAGIC = 0x4E4A4431; // "NJD1"
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int MAX_RECENT_KEY_LENGTH = 1024; // longer keys only go in the filter
+
+    @Inject
+    @Named("dedupFile")
+    File file;
+
+    @ConfigProperty(name = "ninja.dedup.recent.days", defaultValue = "30")
+    int recentDays;
+
+    @ConfigProperty(name = "ninja.dedup.recent.max-keys", defaultValue = "200000")
+    int recentMaxKeys;
+
+    @ConfigProperty(name = "ninja.dedup.retention.days", defaultValue = "400")
+    int retentionDays;
+
+    @ConfigProperty(name = "ninja.dedup.bloom.expected-keys", defaultValue = "1000000")
+    int expectedKeys;
+
+    @ConfigProperty(name = "ninja.dedup.bloom.fpp", defaultValue = "0.0001")
+    double falsePositiveRate;
+
+    // key -> day it was added, oldest first
+    private final LinkedHashMap<String, Integer> recent = new LinkedHashMap<>();
+    private BloomFilter current;
+    private BloomFilter previous;
+    private int currentSince; // day the current generation was started
+
+    // true (and remembered from now on) if the key hasn't been seen before
+    public synchronized boolean add(String key) {
+        int today = today();
+        rotate(today);
+        if (recent.containsKey(key) || current.mightContain(key) || (null != previous && previous.mightContain(key)))
+            return false;
+        if (key.length() <= MAX_RECENT_KEY_LENGTH) recent.put(key, today);
+        current.add(key);
+        evict(today);
+        return true;
+    }
+
+    public synchronized boolean contains(String key) {
+        rotate(today());
+        return recent.containsKey(key) || current.mightContain(key) || (null != previous && previous.mightContain(key));
+    }
+
+    // keys from before this existed (database2.json's pointsDuplicateChecker): their age isn't known, so they go straight into the filter
+    public synchronized void importLegacy(Collection<String> keys) {
+        rotate(today());
+        for (String key : keys)
+            if (!current.mightContain(key)) current.add(key);
+        log.info("Imported " + keys.size() + " legacy duplicate check keys");
+    }
+
+    private void rotate(int today) {
+        if (null == current) {
+            current = BloomFilter.create(expectedKeys, falsePositiveRate);
+            currentSince = today;
+        } else if (today - currentSince >= retentionDays) {
+            previous = today - currentSince >= 2 * retentionDays ? null : current;
+            current = BloomFilter.create(expectedKeys, falsePositiveRate);
+            currentSince = today;
+            log.info("Started a new duplicate check generation (" + (null != previous ? previous.count() : 0) + " keys retired to the previous one)");
+        }
+    }
+
+    private void evict(int today) {
+        Iterator<Entry<String, Integer>> it = recent.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Integer> eldest = it.next();
+            if (recent.size() <= recentMaxKeys && today - eldest.getValue() < recentDays) break;
+            it.remove();
+        }
+    }
+
+    private static int today() {
+        return (int) (System.currentTimeMillis() / 60000 / MINUTES_PER_DAY);
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        rotate(today());
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("recentKeys", recent.size());
+        stats.put("filterKeys", current.count() + (null != previous ? previous.count() : 0));
+        stats.put("filterBytes", current.sizeInBytes() + (null != previous ? previous.sizeInBytes() : 0));
+        return stats;
+    }
+
+    public synchronized void load() throws IOException {
+        recent.clear();
+        current = null;
+        previous = null;
+        if (!file.exists()) {
+            rotate(today());
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a duplicate check file: " + file);
+            currentSince = in.readInt();
+            current = BloomFilter.read(in);
+            previous = in.readBoolean() ? BloomFilter.read(in) : null;
+            int size = in.readInt();
+            for (int i = 0; i < size; i++)
+                recent.put(in.readUTF(), in.readInt());
+        }
+        rotate(today());
+        evict(today());
+        log.info("Duplicate check keys loaded (recent=" + recent.size() + ", filtered=" + current.count() + (null != previous ? "+" + previous.count() : "") + ")");
+    }
+
+    // written to a temp file and renamed over the last copy, then the directory is fsynced so the
+    // rename survives a crash (the write-ahead log no longer has the keys once this is checkpointed)
+    public synchronized void save() throws IOException {
+        rotate(today());
+        Path path = file.toPath();
+        if (!file.getAbsoluteFile().getParentFile().exists()) file.getAbsoluteFile().getParentFile().mkdirs();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(currentSince);
+            current.write(out);
+            out.writeBoolean(null != previous);
+            if (null != previous) previous.write(out);
+            out.writeInt(recent.size());
+            for (Entry<String, Integer> e : recent.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+            out.flush();
+            gzip.finish();
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        SnapshotWriter.syncDirectory(path.toAbsolutePath().getParent());
+    }
+}
@@ -0,0 +1,211 @@
+package com.redhat.sso.ninja.events;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+// One entry of the event log, kept small because up to events.max of them are held in memory:
+// the timestamp is minutes since the epoch, points a primitive, and type, user and pool (which
+// only take a few hundred distinct values) share one instance per value. The timestamp text is
+// only produced when the event is serialized. Property names match Database2.EVENT_FIELDS
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({ "timestamp", "type", "user", "text", "points", "source", "pool" })
+public class Event {
+    public static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM");
+    private static final int NO_POINTS = Integer.MIN_VALUE;
+    private static final int NO_TIMESTAMP = Integer.MIN_VALUE;
+    private static final Map<String, String> dictionary = new ConcurrentHashMap<>();
+
+    private int minute = NO_TIMESTAMP;
+    private int points = NO_POINTS;
+    private String type;
+    private String user;
+    private String pool;
+    private String text;
+    private String source;
+    private String rawTimestamp; // only set when an imported timestamp couldn't be parsed
+
+    public Event() {
+    }
+
+    public Event(int minute, String type, String user, String text) {
+        this.minute = minute;
+        this.type = intern(type);
+        this.user = intern(user);
+        this.text = text;
+    }
+
+    public Event(int minute, String type, String user, Integer points, String source, String pool) {
+        this(minute, type, user, null);
+        this.points = null != points ? points : NO_POINTS;
+        this.source = source;
+        this.pool = intern(pool);
+    }
+
+    public static int currentMinute() {
+        return (int) (System.currentTimeMillis() / 60000);
+    }
+
+    private static ZoneId zone() {
+        return ZoneId.systemDefault();
+    }
+
+    static String intern(String value) {
+        if (null == value) return null;
+        String existing = dictionary.putIfAbsent(value, value);
+        return null != existing ? existing : value;
+    }
+
+    // for events read back from maps (older snapshots and write-ahead logs)
+    public static Event fromMap(Map<String, String> map) {
+        Event event = new Event();
+        for (Map.Entry<String, String> e : map.entrySet())
+            event.set(e.getKey(), e.getValue());
+        return event;
+    }
+
+    public Event set(String field, String value) {
+        switch (field) {
+            case "timestamp":
+                setTimestamp(value);
+                break;
+            case "type":
+                setType(value);
+                break;
+            case "user":
+                setUser(value);
+                break;
+            case "text":
+                setText(value);
+                break;
+            case "points":
+                setPoints(value);
+                break;
+            case "source":
+                setSource(value);
+                break;
+            case "pool":
+                setPool(value);
+                break;
+            default: // unknown fields are dropped
+        }
+        return this;
+    }
+
+    @JsonIgnore
+    public int getMinute() {
+        return minute;
+    }
+
+    // yyyy-MM, the segment this event belongs to
+    @JsonIgnore
+    public String getMonth() {
+        if (minute == NO_TIMESTAMP) {
+            return null != rawTimestamp && rawTimestamp.length() >= 7 ? rawTimestamp.substring(0, 7) : MONTH_FORMAT.format(LocalDateTime.now());
+        }
+        return monthOf(minute);
+    }
+
+    // yyyy-MM of a minute since the epoch, as segments are named
+    public static String monthOf(int minute) {
+        return MONTH_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(minute * 60L), zone()));
+    }
+
+    private LocalDateTime toDateTime() {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(minute * 60L), zone());
+    }
+
+    public String getTimestamp() {
+        if (minute == NO_TIMESTAMP) return rawTimestamp;
+        return TIMESTAMP_FORMAT.format(toDateTime());
+    }
+
+    public void setTimestamp(String timestamp) {
+        minute = NO_TIMESTAMP;
+        rawTimestamp = null;
+        if (null == timestamp) return;
+        try {
+            // older events may carry seconds, minute resolution is all that's kept
+            String value = timestamp.length() > 16 ? timestamp.substring(0, 16) : timestamp;
+            minute = (int) (LocalDateTime.parse(value, TIMESTAMP_FORMAT).atZone(zone()).toEpochSecond() / 60);
+        } catch (DateTimeParseException e) {
+            rawTimestamp = timestamp;
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = intern(type);
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = intern(user);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    // serialized as a string, as events always have been
+    public String getPoints() {
+        return points == NO_POINTS ? null : String.valueOf(points);
+    }
+
+    public void setPoints(String points) {
+        this.points = NO_POINTS;
+        if (null == points) return;
+        try {
+            this.points = Integer.parseInt(points.trim());
+        } catch (NumberFormatException e) {
+            // "null" was written by older versions when no points were given
+        }
+    }
+
+    @JsonIgnore
+    public boolean hasPoints() {
+        return points != NO_POINTS;
+    }
+
+    @JsonIgnore
+    public int getPointsValue() {
+        return points == NO_POINTS ? 0 : points;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    public void setPool(String pool) {
+        this.pool = intern(pool);
+    }
+}
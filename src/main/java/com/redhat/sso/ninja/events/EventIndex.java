@@ -0,0 +1,133 @@
+package com.redhat.sso.ninja.events;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Secondary indexes over the in-memory events (EventRing) by user, type and pool, each a
+// posting list of sequence numbers, plus the first sequence number of every day. A query
+// intersects one union of posting lists per filter by leapfrogging from the newest event
+// down: each filter jumps straight to its next candidate, so the cost follows the number
+// of matches rather than the number of events. Guarded by the EventStore's lock
+final class EventIndex {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final Map<String, SequenceList> byUser = new HashMap<>();
+    private final Map<String, SequenceList> byType = new HashMap<>();
+    private final Map<String, SequenceList> byPool = new HashMap<>();
+    private final TreeMap<Integer, Long> firstByDay = new TreeMap<>();
+
+    void add(long seq, Event event, long firstLive) {
+        add(byUser, event.getUser(), seq, firstLive);
+        add(byType, event.getType(), seq, firstLive);
+        add(byPool, event.getPool(), seq, firstLive);
+        firstByDay.putIfAbsent(Math.floorDiv(event.getMinute(), MINUTES_PER_DAY), seq);
+        while (firstByDay.size() > 1 && firstByDay.higherEntry(firstByDay.firstKey()).getValue() <= firstLive)
+            firstByDay.pollFirstEntry(); // the whole day has been evicted
+    }
+
+    private static void add(Map<String, SequenceList> index, String key, long seq, long firstLive) {
+        if (null == key) return;
+        index.computeIfAbsent(key, k -> new SequenceList()).add(seq, firstLive);
+    }
+
+    void clear() {
+        byUser.clear();
+        byType.clear();
+        byPool.clear();
+        firstByDay.clear();
+    }
+
+    EventPage query(EventQuery query, EventRing<Event> ring) {
+        long firstLive = ring.firstSequence();
+        long end = ring.nextSequence();
+        long lowest = null == query.getSinceMinute() ? firstLive : firstAtOrAfter(ring, query.getSinceMinute());
+        List<List<SequenceList>> filters = new ArrayList<>();
+        if (!addFilter(filters, byUser, query.getUsers()) || !addFilter(filters, byType, query.getTypes()) || !addFilter(filters, byPool, query.getPools()))
+            return new EventPage(new ArrayList<>(), null, 0);
+
+        // with no filter, or only one (an event has one user, type and pool so its lists don't
+        // overlap), the total comes straight from the list sizes and only the page is walked
+        long total = -1;
+        if (query.isCounted()) {
+            if (filters.isEmpty()) {
+                total = end - lowest;
+            } else if (filters.size() == 1) {
+                total = 0;
+                for (SequenceList list : filters.get(0))
+                    total += list.countFrom(lowest);
+            }
+        }
+        boolean walkAll = query.isCounted() && total < 0;
+
+        List<Event> events = new ArrayList<>(Math.min(query.getLimit(), 1000));
+        Long next = null;
+        long matched = 0;
+        long seq = (walkAll ? end : Math.min(end, query.getBefore())) - 1;
+        while ((seq = nextMatch(filters, seq, firstLive)) >= lowest) {
+            matched++;
+            if (seq < query.getBefore()) {
+                if (events.size() < query.getLimit()) {
+                    events.add(ring.getBySequence(seq));
+                } else if (null == next) {
+                    next = seq + 1; // the following page starts with this event
+                    if (!walkAll) break;
+                }
+            }
+            seq--;
+        }
+        return new EventPage(events, next, (int) (walkAll ? matched : total));
+    }
+
+    // events are appended in time order: the day index narrows it down, a binary search does the rest
+    private long firstAtOrAfter(EventRing<Event> ring, int minute) {
+        int day = Math.floorDiv(minute, MINUTES_PER_DAY);
+        Entry<Integer, Long> from = firstByDay.floorEntry(day);
+        Entry<Integer, Long> to = firstByDay.higherEntry(day);
+        long lo = Math.max(ring.firstSequence(), null != from ? from.getValue() : ring.firstSequence());
+        long hi = null != to ? to.getValue() : ring.nextSequence();
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            Event event = ring.getBySequence(mid);
+            if (null != event && event.getMinute() < minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // false when a filter can't match anything at all
+    private static boolean addFilter(List<List<SequenceList>> filters, Map<String, SequenceList> index, Set<String> keys) {
+        if (null == keys) return true;
+        List<SequenceList> lists = new ArrayList<>();
+        for (String key : keys) {
+            SequenceList list = index.get(key);
+            if (null != list) lists.add(list);
+        }
+        filters.add(lists);
+        return !lists.isEmpty();
+    }
+
+    // the highest sequence number <= seq matched by every filter, below firstLive if none
+    private static long nextMatch(List<List<SequenceList>> filters, long seq, long firstLive) {
+        while (seq >= firstLive) {
+            long candidate = seq;
+            for (List<SequenceList> filter : filters) {
+                long floor = -1;
+                for (SequenceList list : filter)
+                    floor = Math.max(floor, list.floor(candidate, firstLive));
+                if (floor < 0) return -1;
+                candidate = floor;
+            }
+            if (candidate == seq) return seq;
+            seq = candidate; // some filter jumped lower, check the others agree
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,30 @@
+package com.redhat.sso.ninja.events;
+
+import java.util.List;
+
+public class EventPage {
+    private final List<Event> events;
+    private final Long next;
+    private final int total;
+
+    EventPage(List<Event> events, Long next, int total) {
+        this.events = events;
+        this.next = next;
+        this.total = total;
+    }
+
+    // newest first
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    // cursor for the following page, null when this was the last one
+    public Long getNext() {
+        return next;
+    }
+
+    // how many events match the query in total, across all pages; -1 if the query wasn't counted
+    public int getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,100 @@
+package com.redhat.sso.ninja.events;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Filters for EventStore.query; every filter that's set must match (a null set matches anything,
+// an empty one nothing). Results come newest first, 'before' is the cursor from the previous page
+public class EventQuery {
+    private Set<String> types;
+    private Set<String> users;
+    private Set<String> pools;
+    private Integer sinceMinute;
+    private long before = Long.MAX_VALUE;
+    private int limit = Integer.MAX_VALUE;
+    private boolean counted = true;
+
+    public EventQuery types(Collection<String> types) {
+        this.types = null == types ? null : new HashSet<>(types);
+        return this;
+    }
+
+    public EventQuery users(Collection<String> users) {
+        this.users = null == users ? null : new HashSet<>(users);
+        return this;
+    }
+
+    public EventQuery pools(Collection<String> pools) {
+        this.pools = null == pools ? null : new HashSet<>(pools);
+        return this;
+    }
+
+    // only events at or after this minute since the epoch
+    public EventQuery since(Integer minute) {
+        this.sinceMinute = minute;
+        return this;
+    }
+
+    public EventQuery before(Long cursor) {
+        this.before = null == cursor ? Long.MAX_VALUE : cursor;
+        return this;
+    }
+
+    public EventQuery limit(Integer limit) {
+        this.limit = null == limit || limit <= 0 ? Integer.MAX_VALUE : limit;
+        return this;
+    }
+
+    // false when only the page is wanted, ie. walking every page of an export
+    public EventQuery counted(boolean counted) {
+        this.counted = counted;
+        return this;
+    }
+
+    public Set<String> getTypes() {
+        return types;
+    }
+
+    public Set<String> getUsers() {
+        return users;
+    }
+
+    public Set<String> getPools() {
+        return pools;
+    }
+
+    public Integer getSinceMinute() {
+        return sinceMinute;
+    }
+
+    public long getBefore() {
+        return before;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isCounted() {
+        return counted;
+    }
+
+    // for events read back from a segment, the index does this for the in-memory ones
+    boolean matches(Event event) {
+        return (null == types || types.contains(event.getType()))
+                && (null == users || users.contains(event.getUser()))
+                && (null == pools || pools.contains(event.getPool()))
+                && (null == sinceMinute || event.getMinute() >= sinceMinute);
+    }
+
+    // the filters (not the page), to tell queries matching the same events apart
+    String filterKey() {
+        return sorted(types) + "|" + sorted(users) + "|" + sorted(pools) + "|" + sinceMinute;
+    }
+
+    private static String sorted(Set<String> values) {
+        return null == values ? "*" : new TreeSet<>(values).toString();
+    }
+}
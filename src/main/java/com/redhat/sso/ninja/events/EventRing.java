@@ -0,0 +1,174 @@
+package com.redhat.sso.ninja.events;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+// Bounded ring buffer: appends and evictions of the oldest entry are O(1), and every entry gets
+// a monotonically increasing sequence number that survives eviction, clearing and resizing, so
+// it can be used as a stable cursor. The backing array grows on demand up to the capacity.
+// Iterators walk a sequence range fixed when they're created and simply stop at entries that
+// have been evicted since, so reading while another thread appends never throws
+public class EventRing<T> extends AbstractList<T> implements RandomAccess {
+    private static final int INITIAL_SIZE = 1024;
+
+    private Object[] items = new Object[0];
+    private int capacity;
+    private long first = 0; // sequence number of the oldest retained entry
+    private long next = 0; // sequence number the next append will get
+
+    public EventRing(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    public synchronized long append(T item) {
+        long seq = next++;
+        if (capacity == 0) {
+            first = next;
+            return seq;
+        }
+        if (seq - first >= items.length && items.length < capacity)
+            relayout(Math.min(capacity, Math.max(INITIAL_SIZE, items.length * 2)), seq);
+        items[index(seq)] = item;
+        if (next - first > items.length) first = next - items.length;
+        return seq;
+    }
+
+    // keeps the newest entries that fit in the new capacity
+    public synchronized void resize(int newCapacity) {
+        newCapacity = Math.max(0, newCapacity);
+        if (newCapacity == capacity) return;
+        capacity = newCapacity;
+        if (size() > capacity) first = next - capacity;
+        relayout(Math.min(items.length, capacity), next);
+    }
+
+    // copies the retained entries before 'end' into an array of the given length
+    private void relayout(int length, long end) {
+        Object[] resized = new Object[length];
+        for (long seq = Math.max(first, end - length); seq < end; seq++)
+            resized[(int) (seq % length)] = items[index(seq)];
+        items = resized;
+    }
+
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(items, null);
+        first = next;
+    }
+
+    private int index(long seq) {
+        return (int) (seq % items.length);
+    }
+
+    @Override
+    public synchronized int size() {
+        return (int) (next - first);
+    }
+
+    // 0 is the oldest retained entry
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized T get(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return (T) items[index(first + index)];
+    }
+
+    // null if the sequence number has been evicted or not yet assigned
+    @SuppressWarnings("unchecked")
+    public synchronized T getBySequence(long seq) {
+        if (seq < first || seq >= next) return null;
+        return (T) items[index(seq)];
+    }
+
+    public synchronized long firstSequence() {
+        return first;
+    }
+
+    public synchronized long nextSequence() {
+        return next;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        long from, to;
+        synchronized (this) {
+            from = first;
+            to = next;
+        }
+        return new SequenceIterator(from, to, false);
+    }
+
+    public Iterable<T> newestFirst() {
+        return () -> {
+            long from, to;
+            synchronized (this) {
+                from = first;
+                to = next;
+            }
+            return new SequenceIterator(from, to, true);
+        };
+    }
+
+    // one page, newest first, of the entries with sequence numbers below 'before'. Returns the
+    // cursor for the following page, or -1 once the oldest retained entry has been returned
+    @SuppressWarnings("unchecked")
+    public synchronized long newestBefore(long before, int limit, List<? super T> page) {
+        long seq = Math.min(next, before) - 1;
+        for (; seq >= first && limit > 0; seq--, limit--)
+            page.add((T) items[index(seq)]);
+        return seq >= first ? seq + 1 : -1;
+    }
+
+    private class SequenceIterator implements Iterator<T> {
+        private final long from;
+        private final long to;
+        private final boolean reverse;
+        private long cursor;
+        private T nextItem;
+
+        SequenceIterator(long from, long to, boolean reverse) {
+            this.from = from;
+            this.to = to;
+            this.reverse = reverse;
+            this.cursor = reverse ? to - 1 : from;
+            advance();
+        }
+
+        private void advance() {
+            nextItem = null;
+            while (null == nextItem && (reverse ? cursor >= from : cursor < to)) {
+                nextItem = getBySequence(cursor);
+                if (null == nextItem && !reverse && cursor < firstSequence()) {
+                    cursor = firstSequence(); // skip past whatever was evicted meanwhile
+                    continue;
+                }
+                if (null == nextItem && reverse) {
+                    cursor = from - 1; // everything older has been evicted too
+                    break;
+                }
+                cursor += reverse ? -1 : 1;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return null != nextItem;
+        }
+
+        @Override
+        public T next() {
+            if (null == nextItem) throw new NoSuchElementException();
+            T result = nextItem;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package com.redhat.sso.ninja.events;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.redhat.sso.ninja.Config;
+import com.redhat.sso.ninja.ConfigChanged;
+import com.redhat.sso.ninja.ConfigSnapshot;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Events live outside the database snapshot in append-only segment files, one per month
+// (events-yyyy-MM.jsonl, one json event per line). Only the newest segment is held in memory;
+// older months are streamed from disk when asked for. Appends are buffered and written by
+// flush(), which the PersistenceScheduler calls alongside the write-ahead log. The in-memory
+// events are indexed by user, type, pool and day for query(). When a query reaches back before
+// the newest month the older segments are read newest first, a chunk at a time, seeking to where
+// the cursor points through each segment's SegmentIndex
+@ApplicationScoped
+public class EventStore {
+    private static final Logger log = Logger.getLogger(EventStore.class);
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".jsonl";
+    private static final int MAX_COUNTS = 256;
+    private static final int MAX_SEGMENT_INDEXES = 64;
+    private static final int EXPORT_PAGE = 1000;
+
+    @Inject
+    @Named("eventsDir")
+    File dir;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @Inject
+    Config config;
+
+    private ObjectWriter writer;
+    private String hotMonth;
+    private EventRing<Event> hot;
+    private final EventIndex index = new EventIndex();
+    // month -> lines not yet written to that month's segment
+    private Map<String, ByteArrayOutputStream> pending = new LinkedHashMap<>();
+    private final Object flushLock = new Object(); // one writer at a time, taken before the monitor
+    // matches per older segment (month, length and filters), so paging through a query doesn't
+    // re-read every older month just for the total
+    private final Map<String, Long> counts = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_COUNTS;
+        }
+    };
+    private final Map<String, SegmentIndex> segmentIndexes = new LinkedHashMap<String, SegmentIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SegmentIndex> eldest) {
+            return size() > MAX_SEGMENT_INDEXES;
+        }
+    };
+
+    public int getMaxEventEntries() {
+        return config.getSnapshot().getMaxEventEntries();
+    }
+
+    // picks up a changed events.max, keeping the newest events that still fit
+    synchronized void configChanged(@Observes ConfigChanged change) {
+        if (null != hot && change.changed(ConfigSnapshot::getMaxEventEntries))
+            hot.resize(change.getCurrent().getMaxEventEntries());
+    }
+
+    // reads the newest segment into memory, older ones stay on disk
+    public synchronized void load() throws IOException {
+        hot = new EventRing<>(getMaxEventEntries());
+        hotMonth = null;
+        pending.clear();
+        index.clear();
+        List<String> months = getMonths();
+        if (months.isEmpty()) return;
+        hotMonth = months.get(months.size() - 1);
+        readSegment(hotMonth, this::appendHot);
+        log.info("Events loaded (month=" + hotMonth + ", events=" + hot.size() + ", segments=" + months.size() + ")");
+    }
+
+    public synchronized void append(Event event) {
+        String month = event.getMonth();
+        if (null == hotMonth || month.compareTo(hotMonth) > 0) roll(month);
+        if (month.equals(hotMonth)) appendHot(event); // evicts the oldest once at events.max
+        try {
+            if (null == writer) writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+            ByteArrayOutputStream buf = pending.computeIfAbsent(month, k -> new ByteArrayOutputStream());
+            buf.write(writer.writeValueAsBytes(event));
+            buf.write('\n');
+        } catch (IOException e) {
+            log.error("Failed to buffer event", e);
+        }
+    }
+
+    private void appendHot(Event event) {
+        long seq = getHot().append(event);
+        index.add(seq, event, hot.firstSequence());
+    }
+
+    private void roll(String month) {
+        if (null != hotMonth) log.info("Rolling events over from " + hotMonth + " to " + month);
+        hotMonth = month;
+        getHot().clear();
+        index.clear();
+    }
+
+    // like the write-ahead log: the buffers are swapped out under the monitor and written and
+    // fsynced outside it, so appends don't wait for the disk
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            Map<String, ByteArrayOutputStream> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+            if (!dir.exists()) dir.mkdirs();
+            boolean newSegment = false;
+            Iterator<Entry<String, ByteArrayOutputStream>> it = batch.entrySet().iterator();
+            try {
+                while (it.hasNext()) {
+                    Entry<String, ByteArrayOutputStream> e = it.next();
+                    File segment = segmentFile(e.getKey());
+                    newSegment |= !segment.exists();
+                    try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                        ByteBuffer buf = ByteBuffer.wrap(e.getValue().toByteArray());
+                        while (buf.hasRemaining())
+                            channel.write(buf);
+                        channel.force(false);
+                    }
+                    it.remove();
+                }
+            } catch (IOException e) {
+                synchronized (this) { // what wasn't written goes with the next flush, ahead of what was appended since
+                    for (Entry<String, ByteArrayOutputStream> later : pending.entrySet())
+                        batch.computeIfAbsent(later.getKey(), k -> new ByteArrayOutputStream()).writeBytes(later.getValue().toByteArray());
+                    pending = batch;
+                }
+                throw e;
+            }
+            if (newSegment) enforceRetention();
+        }
+    }
+
+    // the newest segment's events: a read-only list (0 is the oldest) that also iterates newest-first
+    public synchronized EventRing<Event> getHot() {
+        if (null == hot) hot = new EventRing<>(getMaxEventEntries());
+        return hot;
+    }
+
+    // the events matching the query, newest first: the newest month's from memory through the
+    // index, then (when there's no daysOld bound or it reaches back that far) the older months',
+    // streamed from their segments. Cursors into an older segment are negative, see coldCursor
+    public EventPage query(EventQuery query) throws IOException {
+        String month;
+        EventPage page;
+        synchronized (this) {
+            month = hotMonth;
+            page = index.query(query, getHot()); // a cold cursor is below every sequence, leaving only the total
+        }
+        List<String> older = olderMonths(month, query);
+        if (older.isEmpty()) return page;
+
+        long before = query.getBefore();
+        String cursorMonth = before < 0 ? cursorMonth(before) : null;
+        List<Event> events = new ArrayList<>(page.getEvents());
+        Long[] next = { page.getNext() };
+        long total = page.getTotal();
+        for (String m : older) {
+            if (query.isCounted()) total += count(m, query);
+            if (null != next[0] || (null != cursorMonth && m.compareTo(cursorMonth) > 0)) continue; // the page is full, or the cursor is further back
+            long end = m.equals(cursorMonth) ? cursorLine(before) : Long.MAX_VALUE;
+            scanNewestFirst(m, end, (at, event) -> {
+                if (!query.matches(event)) return true;
+                if (events.size() < query.getLimit()) {
+                    events.add(event);
+                    return true;
+                }
+                next[0] = coldCursor(m, at + 1); // one more than fits, the next page starts with it
+                return false;
+            });
+            if (null != next[0] && !query.isCounted()) break;
+        }
+        return new EventPage(events, next[0], query.isCounted() ? (int) total : -1);
+    }
+
+    // the segments before the newest month that the query reaches back to, newest first
+    private List<String> olderMonths(String month, EventQuery query) throws IOException {
+        String since = null == query.getSinceMinute() ? null : Event.monthOf(query.getSinceMinute());
+        if (null == month || (null != since && since.compareTo(month) >= 0)) return Collections.emptyList();
+        flush(); // older months can still get events (ie. imported late), those must be in the segment
+        List<String> older = new ArrayList<>();
+        for (String m : getMonths())
+            if (m.compareTo(month) < 0 && (null == since || m.compareTo(since) >= 0)) older.add(m);
+        Collections.reverse(older);
+        return older;
+    }
+
+    public interface Sink {
+        void accept(Event event) throws IOException;
+    }
+
+    // every event matching the query's filters, newest first, for exports: the newest month's from
+    // the index a page at a time, then each older segment read once, newest chunk first. Unlike
+    // paging through query() nothing is read more than once, whatever the size of the export
+    public void export(EventQuery query, Sink sink) throws IOException {
+        query.before(null).limit(EXPORT_PAGE).counted(false);
+        String month;
+        synchronized (this) {
+            month = hotMonth;
+        }
+        Long next;
+        do {
+            EventPage page;
+            synchronized (this) {
+                if (!Objects.equals(month, hotMonth)) break; // rolled over to a new month part way through
+                page = index.query(query, getHot());
+            }
+            for (Event event : page.getEvents())
+                sink.accept(event);
+            next = page.getNext();
+            query.before(next);
+        } while (null != next);
+
+        for (String m : olderMonths(month, query)) {
+            scanNewestFirst(m, Long.MAX_VALUE, (at, event) -> {
+                if (query.matches(event)) sink.accept(event);
+                return true;
+            });
+        }
+    }
+
+    // matches in an older segment, counted once per segment length and filters
+    private long count(String month, EventQuery query) throws IOException {
+        String key = month + "|" + segmentFile(month).length() + "|" + query.filterKey();
+        Long counted = cachedCount(key);
+        if (null != counted) return counted;
+        long[] matched = { 0 };
+        scanSegment(month, 0, Long.MAX_VALUE, (at, event) -> {
+            if (query.matches(event)) matched[0]++;
+        });
+        cacheCount(key, matched[0]);
+        return matched[0];
+    }
+
+    private Long cachedCount(String key) {
+        synchronized (counts) {
+            return counts.get(key);
+        }
+    }
+
+    private void cacheCount(String key, long count) {
+        synchronized (counts) {
+            counts.put(key, count);
+        }
+    }
+
+    // a cursor for the events before 'line' in a month's segment (and then the older months):
+    // -(month << 32 | line) - 1 where month is year * 12 + month - 1, so it's always negative
+    static long coldCursor(String month, long line) {
+        long key = Integer.parseInt(month.substring(0, 4)) * 12L + Integer.parseInt(month.substring(5, 7)) - 1;
+        return -((key << 32) | Math.min(line, 0xFFFFFFFFL)) - 1;
+    }
+
+    private static String cursorMonth(long cursor) {
+        long key = (-(cursor + 1)) >>> 32;
+        return String.format("%04d-%02d", key / 12, key % 12 + 1);
+    }
+
+    private static long cursorLine(long cursor) {
+        return (-(cursor + 1)) & 0xFFFFFFFFL;
+    }
+
+    public synchronized List<String> getMonths() {
+        String[] names = dir.list((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        List<String> months = new ArrayList<>();
+        if (null != names) {
+            for (String name : names)
+                months.add(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        }
+        Collections.sort(months);
+        return months;
+    }
+
+    // streams every retained event, oldest first; flushed segments come from disk, the newest from memory
+    public void forEach(Consumer<Event> consumer) throws IOException {
+        List<String> months;
+        String current;
+        flush();
+        synchronized (this) {
+            months = getMonths();
+            current = hotMonth;
+        }
+        for (String month : months) {
+            if (month.equals(current)) continue;
+            readSegment(month, consumer);
+        }
+        for (Event event : getHot())
+            consumer.accept(event);
+    }
+
+    public void readSegment(String month, Consumer<Event> consumer) throws IOException {
+        readSegment(month, 0, Long.MAX_VALUE, consumer);
+    }
+
+    // records 'skip' onwards of a month's segment, in the order they were written; returns how many
+    // records were consumed (unreadable ones are logged and count too, so the result works as an offset)
+    public long readSegment(String month, long skip, long limit, Consumer<Event> consumer) throws IOException {
+        return scanSegment(month, skip, limit, (at, event) -> consumer.accept(event));
+    }
+
+    private interface Scan {
+        void accept(long at, Event event); // at is the record's offset in the segment
+    }
+
+    private interface Visit {
+        boolean accept(long at, Event event) throws IOException; // false to stop
+    }
+
+    // the records before 'end' of a month's segment, newest first: the segment is read a chunk of
+    // SegmentIndex.STRIDE records at a time, from the chunk 'end' falls in back to the first, so
+    // only the chunks visited are read and only one is held at a time
+    private void scanNewestFirst(String month, long end, Visit visit) throws IOException {
+        SegmentIndex index = segmentIndex(month);
+        if (null == index) return;
+        end = Math.min(end, index.records());
+        if (end <= 0) return;
+        File segment = segmentFile(month);
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            for (int chunk = (int) ((end - 1) / SegmentIndex.STRIDE); chunk >= 0; chunk--) {
+                long first = (long) chunk * SegmentIndex.STRIDE;
+                List<Event> records = readChunk(channel, index.offset(chunk), (int) Math.min(SegmentIndex.STRIDE, end - first), segment);
+                for (int i = records.size() - 1; i >= 0; i--) {
+                    if (null != records.get(i) && !visit.accept(first + i, records.get(i))) return;
+                }
+            }
+        }
+    }
+
+    // 'count' records from 'offset'; an unreadable one is logged and left as null, so positions hold
+    private List<Event> readChunk(FileChannel channel, long offset, int count, File segment) throws IOException {
+        channel.position(offset);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8)); // not closed, that would close the channel
+        List<Event> records = new ArrayList<>(count);
+        String line;
+        while (records.size() < count && (line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            try {
+                records.add(objectMapper.readValue(line, Event.class));
+            } catch (IOException e) {
+                log.warn("Skipping unreadable event in " + segment.getName() + ": " + e.getMessage());
+                records.add(null);
+            }
+        }
+        return records;
+    }
+
+    // brought up to date with what has been flushed to the segment; null if there's no segment
+    private SegmentIndex segmentIndex(String month) throws IOException {
+        File segment = segmentFile(month);
+        SegmentIndex index;
+        synchronized (segmentIndexes) {
+            if (!segment.exists()) {
+                segmentIndexes.remove(month);
+                return null;
+            }
+            index = segmentIndexes.computeIfAbsent(month, m -> new SegmentIndex());
+        }
+        index.update(segment.toPath());
+        return index;
+    }
+
+    private long scanSegment(String month, long skip, long limit, Scan consumer) throws IOException {
+        File segment = segmentFile(month);
+        if (!segment.exists()) return 0;
+        long consumed = 0;
+        try (InputStream in = Files.newInputStream(segment.toPath());
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while (consumed < limit && (line = reader.readLine()) != null) {
+                if (line.isBlank() || skip-- > 0) continue;
+                long at = consumed++;
+                try {
+                    consumer.accept(at, objectMapper.readValue(line, Event.class));
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable event in " + segment.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        return consumed;
+    }
+
+    public synchronized String getHotMonth() {
+        return hotMonth;
+    }
+
+    // one-off migration of the events array that used to live inside database2.json
+    public void importLegacy(List<Event> events) throws IOException {
+        synchronized (this) {
+            if (!getMonths().isEmpty()) {
+                log.warn("Ignoring " + events.size() + " events found in the database snapshot, event segments already exist");
+                return;
+            }
+            log.info("Moving " + events.size() + " events out of the database snapshot into monthly segments");
+            for (Event event : events)
+                append(event);
+        }
+        flush();
+    }
+
+    // drop whole segments, oldest first, while the rest still hold at least events.max events
+    private void enforceRetention() throws IOException {
+        List<String> months = getMonths();
+        long[] counts = new long[months.size()];
+        long total = 0;
+        for (int i = 0; i < months.size(); i++) {
+            counts[i] = countLines(segmentFile(months.get(i)));
+            total += counts[i];
+        }
+        for (int i = 0; i < months.size() - 1 && total - counts[i] >= getMaxEventEntries(); i++) {
+            log.info("Deleting event segment " + months.get(i) + " (" + counts[i] + " events) to stay within events.max");
+            Files.deleteIfExists(segmentFile(months.get(i)).toPath());
+            synchronized (segmentIndexes) {
+                segmentIndexes.remove(months.get(i));
+            }
+            total -= counts[i];
+        }
+    }
+
+    private long countLines(File file) throws IOException {
+        long count = 0;
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++)
+                    if (buf[i] == '\n') count++;
+            }
+        }
+        return count;
+    }
+
+    private File segmentFile(String month) {
+        return new File(dir, PREFIX + month + SUFFIX);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.redhat.sso.ninja.events;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Where the records of one month's segment start: the byte offset of every STRIDE'th record, so
+// a cursor (a record number) can seek to within STRIDE records of where it points rather than
+// reading the segment from the start. Blank lines aren't records, as in EventStore.scanSegment.
+// Segments are only ever appended to, so update() carries on from where the last one got to and
+// only the bytes written since are read; it starts over if the file got shorter (ie. replaced)
+final class SegmentIndex {
+    static final int STRIDE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private long[] offsets = new long[16];
+    private long records; // complete records up to 'indexed'
+    private long indexed; // bytes read, always at the start of a line
+
+    // reads what was appended since the last call; only complete (newline terminated) lines count
+    synchronized void update(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < indexed) {
+                records = 0;
+                indexed = 0;
+            }
+            if (size == indexed) return;
+            channel.position(indexed);
+            InputStream in = Channels.newInputStream(channel);
+            byte[] buf = new byte[BUFFER_SIZE];
+            long position = indexed;
+            long lineStart = indexed;
+            boolean blank = true;
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++, position++) {
+                    byte b = buf[i];
+                    if (b == '\n') {
+                        if (!blank) {
+                            if (records % STRIDE == 0) add(lineStart);
+                            records++;
+                        }
+                        indexed = position + 1;
+                        lineStart = indexed;
+                        blank = true;
+                    } else if (b != ' ' && b != '\t' && b != '\r') {
+                        blank = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(long offset) {
+        int chunk = (int) (records / STRIDE);
+        if (chunk == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[chunk] = offset;
+    }
+
+    synchronized long records() {
+        return records;
+    }
+
+    // the byte offset of record chunk * STRIDE
+    synchronized long offset(int chunk) {
+        return offsets[chunk];
+    }
+}
@@ -0,0 +1,51 @@
+package com.redhat.sso.ninja.events;
+
+import java.util.Arrays;
+
+// Ascending event sequence numbers for one index key. Appends only ever add a higher number;
+// numbers of events that have since left the ring are dropped lazily, when the array would
+// otherwise have to grow, so lookups take the oldest live sequence number as a lower bound
+final class SequenceList {
+    private long[] seqs = new long[8];
+    private int size;
+
+    void add(long seq, long firstLive) {
+        if (size == seqs.length) {
+            prune(firstLive);
+            if (size > seqs.length / 2) seqs = Arrays.copyOf(seqs, seqs.length * 2);
+        }
+        seqs[size++] = seq;
+    }
+
+    private void prune(long firstLive) {
+        int live = lowerBound(firstLive);
+        if (live == 0) return;
+        System.arraycopy(seqs, live, seqs, 0, size - live);
+        size -= live;
+    }
+
+    // index of the first entry >= seq
+    private int lowerBound(long seq) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seqs[mid] < seq) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // the highest entry <= seq that's still live, -1 if there is none
+    long floor(long seq, long firstLive) {
+        int i = lowerBound(seq + 1) - 1;
+        return i >= 0 && seqs[i] >= firstLive ? seqs[i] : -1;
+    }
+
+    // entries >= from
+    int countFrom(long from) {
+        return size - lowerBound(from);
+    }
+}
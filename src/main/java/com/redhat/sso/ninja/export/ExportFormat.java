@@ -0,0 +1,49 @@
+package com.redhat.sso.ninja.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+// The formats behind the UI's export links. 'xls' is what the links ask for, it's written as
+// an xlsx workbook
+public enum ExportFormat {
+    CSV("text/csv; charset=UTF-8", "csv"),
+    XLS("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx"),
+    JSON("application/json", "json");
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    // null if the format isn't known
+    public static ExportFormat parse(String value) {
+        for (ExportFormat f : values()) {
+            if (f.name().equalsIgnoreCase(value) || f.extension.equalsIgnoreCase(value)) return f;
+        }
+        return null;
+    }
+
+    public RowWriter open(OutputStream out, JsonFactory jsonFactory, String name) throws IOException {
+        switch (this) {
+            case XLS:
+                return new XlsxRowWriter(out, name);
+            case JSON:
+                return new JsonRowWriter(jsonFactory, out);
+            default:
+                return new CsvRowWriter(out);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.redhat.sso.ninja.export;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+// Export downloads: rows are written to the response as they're produced, chunked, so
+// memory use stays the same whatever the size of the export
+@ApplicationScoped
+public class Exporter {
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    public interface Rows {
+        void write(RowWriter writer) throws IOException;
+    }
+
+    public Response export(String format, String name, Rows rows) {
+        ExportFormat exportFormat = ExportFormat.parse(format);
+        if (null == exportFormat)
+            return Response.status(400).entity("Unknown export format '" + format + "', expected one of csv, xls or json").build();
+        StreamingOutput stream = out -> {
+            try (RowWriter writer = exportFormat.open(out, objectMapper.getFactory(), name)) {
+                rows.write(writer);
+            }
+        };
+        return Response.status(200)
+                .type(exportFormat.getContentType())
+                .header("Content-Disposition", "attachment; filename=\"" + name + "." + exportFormat.getExtension() + "\"")
+                .entity(stream).build();
+    }
+}
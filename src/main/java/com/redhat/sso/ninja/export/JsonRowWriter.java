@@ -0,0 +1,44 @@
+package com.redhat.sso.ninja.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+// an array with one object per row keyed by the column names, empty cells are left out
+class JsonRowWriter implements RowWriter {
+    private final JsonGenerator json;
+    private String[] columns = new String[0];
+
+    JsonRowWriter(JsonFactory factory, OutputStream out) throws IOException {
+        this.json = factory.createGenerator(out);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        json.writeStartArray();
+    }
+
+    @Override
+    public void header(String... columns) {
+        this.columns = columns;
+    }
+
+    @Override
+    public void row(Object... values) throws IOException {
+        json.writeStartObject();
+        for (int i = 0; i < values.length && i < columns.length; i++) {
+            if (values[i] instanceof Number) {
+                json.writeFieldName(columns[i]);
+                json.writeNumber(((Number) values[i]).longValue());
+            } else if (null != values[i]) {
+                json.writeStringField(columns[i], values[i].toString());
+            }
+        }
+        json.writeEndObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        json.writeEndArray();
+        json.close();
+    }
+}
@@ -0,0 +1,13 @@
+package com.redhat.sso.ninja.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Writes a table one row at a time straight to the output, see ExportFormat. Values are
+// Strings or Numbers, null leaves the cell empty. close() finishes the document but leaves
+// the underlying stream open
+public interface RowWriter extends Closeable {
+    void header(String... columns) throws IOException;
+
+    void row(Object... values) throws IOException;
+}
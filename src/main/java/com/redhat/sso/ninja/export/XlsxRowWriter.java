@@ -0,0 +1,76 @@
+package com.redhat.sso.ninja.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+// SXSSF keeps only the last WINDOW rows in memory and flushes older ones to a compressed temp
+// file, so the heap used doesn't grow with the export. The sheets are zipped into the output on close.
+// A sheet holds at most MAX_ROWS rows, past that the rows carry on in another sheet ("name 2", ...)
+// under the same header, rather than failing part way through a streamed download
+class XlsxRowWriter implements RowWriter {
+    private static final int WINDOW = 100;
+    private static final int MAX_CELL_LENGTH = 32767; // Excel's limit
+    static final int MAX_ROWS = 1_048_576; // Excel's limit, per sheet
+
+    private final OutputStream out;
+    private final SXSSFWorkbook workbook;
+    private final String sheetName;
+    private SXSSFSheet sheet;
+    private int sheets = 1;
+    private int rows;
+    private String[] header;
+
+    XlsxRowWriter(OutputStream out, String sheetName) {
+        this.out = out;
+        this.workbook = new SXSSFWorkbook(WINDOW);
+        workbook.setCompressTempFiles(true);
+        this.sheetName = sheetName;
+        this.sheet = workbook.createSheet(sheetName);
+    }
+
+    @Override
+    public void header(String... columns) throws IOException {
+        header = columns;
+        write(columns);
+    }
+
+    @Override
+    public void row(Object... values) throws IOException {
+        if (rows == MAX_ROWS) {
+            sheet = workbook.createSheet(sheetName + " " + ++sheets);
+            rows = 0;
+            if (null != header) write(header);
+        }
+        write(values);
+    }
+
+    private void write(Object... values) {
+        Row row = sheet.createRow(rows++);
+        for (int i = 0; i < values.length; i++) {
+            if (null == values[i]) continue;
+            Cell cell = row.createCell(i);
+            if (values[i] instanceof Number) {
+                cell.setCellValue(((Number) values[i]).doubleValue());
+            } else {
+                String text = values[i].toString();
+                cell.setCellValue(text.length() > MAX_CELL_LENGTH ? text.substring(0, MAX_CELL_LENGTH) : text);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            workbook.write(out);
+            out.flush();
+        } finally {
+            workbook.dispose(); // the temp files
+            workbook.close();
+        }
+    }
+}
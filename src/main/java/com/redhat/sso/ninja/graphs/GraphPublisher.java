@@ -0,0 +1,286 @@
+package com.redhat.sso.ninja.graphs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.redhat.sso.ninja.Database2;
+import com.redhat.sso.ninja.chart.Charts;
+import com.redhat.sso.ninja.scoring.BoardSnapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Sends the chart datasets to the graphs proxy (ninja.graphs.proxy) so dashboards can be served
+// from there. A publish builds every dataset from one board version on the publisher's own
+// thread, keeps those whose content changed since the last successful publish and POSTs them,
+// gzipped, to <proxy>/graphs about batch-bytes of JSON at a time:
+//   {"version": 42, "datasets": {"ninjas": {...}, "nextlevel/jsmith": {...}}, "removed": ["breakdown/olduser"]}
+// Dataset names are the chart endpoint paths under /api. A failed request is retried with
+// exponential backoff; anything not delivered is sent again by the next publish, as is everything
+// after a restart. A blank proxy turns publishing off
+@ApplicationScoped
+public class GraphPublisher {
+    private static final Logger log = Logger.getLogger(GraphPublisher.class);
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    Charts charts;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "ninja.graphs.proxy")
+    Optional<String> proxy;
+
+    @ConfigProperty(name = "ninja.graphs.leaderboard-sizes", defaultValue = "10")
+    List<Integer> leaderboardSizes;
+
+    @ConfigProperty(name = "ninja.graphs.batch-bytes", defaultValue = "1048576")
+    int batchBytes;
+
+    @ConfigProperty(name = "ninja.graphs.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "ninja.graphs.backoff-ms", defaultValue = "1000")
+    long backoffMillis;
+
+    @ConfigProperty(name = "ninja.graphs.timeout-seconds", defaultValue = "30")
+    long timeoutSeconds;
+
+    // content hash of each dataset as the proxy last received it
+    private final Map<String, Long> published = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private HttpClient client;
+    private ObjectWriter writer;
+    private URI endpoint;
+    private CompletableFuture<Integer> running;
+    private boolean again;
+    private volatile String lastPublished;
+    private volatile String lastError;
+
+    private static class Batch {
+        final long version;
+        final Map<String, byte[]> datasets = new LinkedHashMap<>();
+        final Map<String, Long> hashes = new HashMap<>();
+        final List<String> removed = new ArrayList<>();
+        int bytes;
+
+        Batch(long version) {
+            this.version = version;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ninja-graphs");
+            t.setDaemon(true);
+            return t;
+        });
+        client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(timeoutSeconds)).build();
+        if (proxy.isPresent() && !proxy.get().isBlank())
+            endpoint = URI.create(proxy.get().replaceAll("/+$", "") + "/graphs");
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return null != endpoint;
+    }
+
+    // starts a publish and returns how many datasets it sent; asked for while one is going, another
+    // follows it so the latest board still gets out
+    public synchronized CompletableFuture<Integer> publish() {
+        if (!isEnabled()) return CompletableFuture.completedFuture(0);
+        if (null != running && !running.isDone()) {
+            again = true;
+            return running;
+        }
+        running = start();
+        return running;
+    }
+
+    private CompletableFuture<Integer> start() {
+        long s = System.currentTimeMillis();
+        return CompletableFuture.supplyAsync(this::changed, executor)
+                .thenCompose(this::send)
+                .whenComplete((sent, error) -> {
+                    if (null == error) {
+                        lastPublished = Instant.now().toString();
+                        lastError = null;
+                        log.infof("Published %d graph datasets in %dms", sent, System.currentTimeMillis() - s);
+                    } else {
+                        lastError = cause(error).getMessage();
+                        log.warnf("Graph publishing failed, undelivered datasets go with the next publish: %s", lastError);
+                    }
+                    finished();
+                });
+    }
+
+    private synchronized void finished() {
+        if (!again) return;
+        again = false;
+        running = start();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("datasets", published.size());
+        stats.put("lastPublished", lastPublished);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    // every dataset from the one board version, batched, leaving out those the proxy already has
+    private List<Batch> changed() {
+        BoardSnapshot board = database.getBoard();
+        List<Batch> batches = new ArrayList<>();
+        batches.add(new Batch(board.getVersion()));
+        Set<String> names = new HashSet<>();
+        add(batches, names, "ninjas", charts.participants(board, null));
+        for (Integer size : leaderboardSizes)
+            add(batches, names, "leaderboard/" + size, charts.participants(board, size));
+        for (String user : board.getUsers().keySet()) {
+            add(batches, names, "nextlevel/" + user, charts.nextLevel(board, user));
+            add(batches, names, "breakdown/" + user, charts.breakdown(board, user));
+        }
+
+        Batch last = batches.get(batches.size() - 1);
+        for (String name : published.keySet())
+            if (!names.contains(name)) last.removed.add(name); // users that have since been removed
+        if (last.datasets.isEmpty() && last.removed.isEmpty()) batches.remove(last);
+        log.debugf("Graph publish of board version %d: %d of %d datasets changed, %d batches", board.getVersion(), batches.stream().mapToInt(b -> b.datasets.size()).sum(), names.size(), batches.size());
+        return batches;
+    }
+
+    private void add(List<Batch> batches, Set<String> names, String name, Object dataset) {
+        names.add(name);
+        byte[] json;
+        try {
+            json = writer.writeValueAsBytes(dataset);
+        } catch (JsonProcessingException e) {
+            throw new CompletionException(e);
+        }
+        long hash = hash(json);
+        Long last = published.get(name);
+        if (null != last && last == hash) return;
+        Batch batch = batches.get(batches.size() - 1);
+        if (batch.bytes >= batchBytes) {
+            batch = new Batch(batch.version);
+            batches.add(batch);
+        }
+        batch.datasets.put(name, json);
+        batch.hashes.put(name, hash);
+        batch.bytes += json.length;
+    }
+
+    // one batch after another; the first that can't be delivered ends the publish
+    private CompletableFuture<Integer> send(List<Batch> batches) {
+        CompletableFuture<Integer> sent = CompletableFuture.completedFuture(0);
+        for (Batch batch : batches) {
+            sent = sent.thenCompose(count -> post(body(batch), 1).thenApply(v -> {
+                published.putAll(batch.hashes);
+                batch.removed.forEach(published::remove);
+                return count + batch.datasets.size();
+            }));
+        }
+        return sent;
+    }
+
+    private CompletableFuture<Void> post(byte[] body, int attempt) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .header("Content-Type", "application/json")
+                .header("Content-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((response, error) -> {
+            if (null == error && response.statusCode() / 100 == 2) return CompletableFuture.<Void>completedFuture(null);
+            String why = null != error ? cause(error).toString() : "HTTP " + response.statusCode();
+            boolean retry = null != error || response.statusCode() >= 500 || response.statusCode() == 429;
+            if (!retry || attempt >= maxAttempts)
+                return CompletableFuture.<Void>failedFuture(new IOException(endpoint + " " + why + " (attempt " + attempt + " of " + maxAttempts + ")"));
+            long delay = backoffMillis << Math.min(attempt - 1, 10);
+            log.warnf("Graphs proxy %s %s, retrying in %dms (attempt %d of %d)", endpoint, why, delay, attempt, maxAttempts);
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor))
+                    .thenCompose(v -> post(body, attempt + 1));
+        }).thenCompose(f -> f);
+    }
+
+    private byte[] body(Batch batch) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(new GZIPOutputStream(bytes))) {
+            json.writeStartObject();
+            json.writeNumberField("version", batch.version);
+            json.writeObjectFieldStart("datasets");
+            for (Map.Entry<String, byte[]> e : batch.datasets.entrySet()) {
+                json.writeFieldName(e.getKey());
+                json.writeRawValue(new String(e.getValue(), StandardCharsets.UTF_8));
+            }
+            json.writeEndObject();
+            json.writeArrayFieldStart("removed");
+            for (String name : batch.removed) json.writeString(name);
+            json.writeEndArray();
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long hash(byte[] json) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(json)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Throwable cause(Throwable error) {
+        return error instanceof CompletionException && null != error.getCause() ? error.getCause() : error;
+    }
+}
@@ -0,0 +1,84 @@
+package com.redhat.sso.ninja.ingest;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// One item of a bulk points upload (see IngestController and Database2.incrementAll). 'key'
+// identifies what the points are for (ie. pool + user + card id): an item whose key has been
+// seen before is skipped as a duplicate. 'params' are the same link params the scripts pass,
+// used for the event's link text
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PointsIncrement {
+    public enum Status {
+        APPLIED,
+        DUPLICATE,
+        UNREGISTERED, // the user hasn't registered, their points are dropped
+        INVALID
+    }
+
+    private String pool;
+    private String user;
+    private Integer points;
+    private String key;
+    private Map<String, String> params;
+
+    public PointsIncrement() {
+    }
+
+    public PointsIncrement(String pool, String user, Integer points, String key, Map<String, String> params) {
+        this.pool = pool;
+        this.user = user;
+        this.points = points;
+        this.key = key;
+        this.params = params;
+    }
+
+    // null if the item can be applied, otherwise why not
+    public String validate() {
+        if (null == pool || pool.isBlank()) return "pool is required";
+        if (null == user || user.isBlank()) return "user is required";
+        if (null == points) return "points is required";
+        return null;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    public void setPool(String pool) {
+        this.pool = pool;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public Integer getPoints() {
+        return points;
+    }
+
+    public void setPoints(Integer points) {
+        this.points = points;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public void setParams(Map<String, String> params) {
+        this.params = params;
+    }
+}
@@ -0,0 +1,122 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.Database2;
+import com.redhat.sso.ninja.events.EventStore;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import io.quarkus.runtime.ShutdownEvent;
+
+// Group commit: mutations mark the database dirty and return straight away, and a single
+// background thread writes everything buffered in the event segments and write-ahead log at
+// most max-delay-ms later (or as soon as max-dirty-ops have piled up), checkpointing the
+// snapshot when the log gets long. Callers that must not return before their changes are on disk
+// call commit() with wait-for-durable enabled, or wait on the future markDirty() returned
+@ApplicationScoped
+public class PersistenceScheduler {
+    private static final Logger log = Logger.getLogger(PersistenceScheduler.class);
+
+    @Inject
+    WriteAheadLog wal;
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    EventStore eventStore;
+
+    @ConfigProperty(name = "ninja.persistence.max-delay-ms", defaultValue = "1000")
+    long maxDelayMs;
+
+    @ConfigProperty(name = "ninja.persistence.max-dirty-ops", defaultValue = "1000")
+    int maxDirtyOps;
+
+    @ConfigProperty(name = "ninja.persistence.wait-for-durable", defaultValue = "false")
+    boolean waitForDurable;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduled;
+    private CompletableFuture<Void> next = new CompletableFuture<>();
+    private int dirtyOps = 0;
+    // the future of the last change each thread marked dirty, for commit()
+    private final ThreadLocal<CompletableFuture<Void>> marked = new ThreadLocal<>();
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ninja-persistence");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // call once the change has been buffered; returns a future that completes once the flush that
+    // writes it has been fsynced (flushes run one after another, so that covers earlier changes too)
+    public synchronized CompletableFuture<Void> markDirty() {
+        dirtyOps++;
+        if (dirtyOps >= maxDirtyOps) {
+            schedule(0);
+        } else if (null == scheduled) {
+            schedule(maxDelayMs);
+        }
+        marked.set(next);
+        return next;
+    }
+
+    // for request handlers, after their changes: only blocks when ninja.persistence.wait-for-durable
+    // is set, until the last change this thread made is durable
+    public void commit() {
+        CompletableFuture<Void> change = marked.get();
+        marked.remove();
+        if (waitForDurable && null != change) change.join();
+    }
+
+    private void schedule(long delayMs) {
+        if (null != scheduled) {
+            if (delayMs > 0 || scheduled.getDelay(TimeUnit.MILLISECONDS) <= 0) return;
+            scheduled.cancel(false); // bring a pending flush forward
+        }
+        scheduled = executor.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void flush() {
+        CompletableFuture<Void> done;
+        int ops;
+        synchronized (this) {
+            done = next;
+            ops = dirtyOps;
+            next = new CompletableFuture<>();
+            dirtyOps = 0;
+            scheduled = null;
+        }
+        try {
+            long s = System.currentTimeMillis();
+            eventStore.flush();
+            wal.flush();
+            if (wal.needsCheckpoint()) database.save();
+            if (ops > 0) log.debug("Persisted " + ops + " changes (" + (System.currentTimeMillis() - s) + "ms)");
+            done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to persist database changes", e);
+            done.completeExceptionally(e);
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        executor.shutdownNow();
+        flush();
+    }
+}
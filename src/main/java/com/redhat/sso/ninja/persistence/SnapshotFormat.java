@@ -0,0 +1,83 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// On-disk encodings for the database snapshot. The format (and whether it's gzipped) is
+// always detected from the file header when reading, so switching formats only affects writes
+public enum SnapshotFormat {
+    JSON,
+    SMILE,
+    CBOR;
+
+    private static final int HEADER_SIZE = 3;
+
+    public JsonFactory factory() {
+        switch (this) {
+            case SMILE:
+                return new SmileFactory();
+            case CBOR:
+                return new CBORFactory();
+            default:
+                return new JsonFactory();
+        }
+    }
+
+    public static SnapshotFormat parse(String value) {
+        for (SnapshotFormat f : values()) {
+            if (f.name().equalsIgnoreCase(value)) return f;
+        }
+        throw new IllegalArgumentException("Unknown database format '" + value + "', expected one of json, smile or cbor");
+    }
+
+    public static boolean isGzip(byte[] header) {
+        return header.length >= 2 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B;
+    }
+
+    public static SnapshotFormat detect(byte[] header) {
+        if (header.length >= 3 && header[0] == ':' && header[1] == ')' && header[2] == '\n')
+            return SMILE;
+        int first = header.length > 0 ? header[0] & 0xFF : 0;
+        // CBOR self-describe tag (0xd9d9f7) or a top level map (major type 5)
+        if (first == 0xD9 || (first >= 0xA0 && first <= 0xBF))
+            return CBOR;
+        return JSON;
+    }
+
+    // peeks at the header, transparently un-gzipping, and leaves the stream positioned at the start of the document
+    public static Detected detect(InputStream in) throws IOException {
+        BufferedInputStream buffered = in instanceof BufferedInputStream ? (BufferedInputStream) in : new BufferedInputStream(in);
+        byte[] header = peek(buffered);
+        boolean gzip = isGzip(header);
+        if (gzip) {
+            buffered = new BufferedInputStream(new GZIPInputStream(buffered));
+            header = peek(buffered);
+        }
+        return new Detected(detect(header), gzip, buffered);
+    }
+
+    private static byte[] peek(BufferedInputStream in) throws IOException {
+        in.mark(HEADER_SIZE);
+        byte[] header = in.readNBytes(HEADER_SIZE);
+        in.reset();
+        return header;
+    }
+
+    public static class Detected {
+        public final SnapshotFormat format;
+        public final boolean gzip;
+        public final InputStream stream;
+
+        Detected(SnapshotFormat format, boolean gzip, InputStream stream) {
+            this.format = format;
+            this.gzip = gzip;
+            this.stream = stream;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.redhat.sso.ninja.events.Event;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Reads a snapshot (json, smile or cbor, optionally gzipped) field by field with a JsonParser so values land straight in the live
+// collections rather than in an intermediate String and a throwaway bean. The events array
+// is the bulk of a large snapshot: when the file is memory-mapped, the parser only scans it
+// for element boundaries and the elements themselves are decoded in parallel chunks
+@ApplicationScoped
+public class SnapshotReader {
+    private static final Logger log = Logger.getLogger(SnapshotReader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final String EVENTS = "events";
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "ninja.database.load.parallel", defaultValue = "true")
+    boolean parallel;
+
+    @ConfigProperty(name = "ninja.database.load.chunk-size", defaultValue = "10000")
+    int chunkSize;
+
+    public interface Target {
+        // called for every top level field except "events"; must consume the whole value
+        void field(String name, JsonParser parser) throws IOException;
+
+        void events(List<Event> events);
+    }
+
+    public void read(File file, Target target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // a single mapping is limited to 2GB, beyond that fall back to a buffered stream
+            MappedByteBuffer mapped = channel.size() < Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) : null;
+            InputStream in = null != mapped ? new ByteBufferBackedInputStream(mapped.duplicate()) : new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+            SnapshotFormat.Detected detected = SnapshotFormat.detect(in);
+            // byte offsets (and so parallel decoding) only make sense for plain json in the mapped file
+            if (detected.gzip || detected.format != SnapshotFormat.JSON) mapped = null;
+            ObjectMapper mapper = detected.format == SnapshotFormat.JSON ? objectMapper : objectMapper.copyWith(detected.format.factory());
+            log.debug("Reading " + detected.format + (detected.gzip ? " (gzip)" : "") + " snapshot " + file);
+            try (JsonParser parser = mapper.getFactory().createParser(detected.stream)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    throw new IOException("Database snapshot is not an object: " + file);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if (EVENTS.equals(name)) {
+                        target.events(parallel && null != mapped ? readEventsParallel(parser, mapped) : readEvents(parser));
+                    } else {
+                        target.field(name, parser);
+                    }
+                }
+            }
+        }
+    }
+
+    // re-encodes a snapshot of any format as indented json, token by token
+    public void copyAsJson(File file, OutputStream out) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            SnapshotFormat.Detected detected = SnapshotFormat.detect(in);
+            try (JsonParser parser = detected.format.factory().createParser(detected.stream);
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.useDefaultPrettyPrinter();
+                while (parser.nextToken() != null)
+                    generator.copyCurrentStructure(parser);
+            }
+        }
+    }
+
+    private List<Event> readEvents(JsonParser parser) throws IOException {
+        List<Event> result = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return result;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            result.add(readEvent(parser));
+        }
+        return result;
+    }
+
+    // scans (without decoding) for chunk boundaries and hands each byte range to a worker
+    private List<Event> readEventsParallel(JsonParser parser, ByteBuffer mapped) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return new ArrayList<>();
+        }
+        long s = System.currentTimeMillis();
+        List<CompletableFuture<List<Event>>> chunks = new ArrayList<>();
+        long chunkStart = -1;
+        long chunkEnd = -1;
+        int inChunk = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (chunkStart < 0) chunkStart = parser.getTokenLocation().getByteOffset();
+            parser.skipChildren();
+            chunkEnd = parser.getCurrentLocation().getByteOffset();
+            if (++inChunk >= chunkSize) {
+                chunks.add(decodeAsync(mapped, chunkStart, chunkEnd, inChunk));
+                chunkStart = -1;
+                inChunk = 0;
+            }
+        }
+        if (inChunk > 0)
+            chunks.add(decodeAsync(mapped, chunkStart, chunkEnd, inChunk));
+
+        List<Event> result = new ArrayList<>(chunks.size() * chunkSize);
+        try {
+            for (CompletableFuture<List<Event>> chunk : chunks)
+                result.addAll(chunk.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        log.debug("Decoded " + result.size() + " events in " + chunks.size() + " chunks (" + (System.currentTimeMillis() - s) + "ms)");
+        return result;
+    }
+
+    private CompletableFuture<List<Event>> decodeAsync(ByteBuffer mapped, long start, long end, int expected) {
+        ByteBuffer slice = mapped.duplicate();
+        slice.limit((int) end).position((int) start);
+        return CompletableFuture.supplyAsync(() -> {
+            // the slice is "{..},{..}" so wrap it in brackets to make it a parseable array
+            InputStream in = new SequenceInputStream(Collections.enumeration(List.of(
+                    new ByteArrayInputStream(new byte[] { '[' }),
+                    new ByteBufferBackedInputStream(slice.slice()),
+                    new ByteArrayInputStream(new byte[] { ']' }))));
+            try (JsonParser chunkParser = objectMapper.getFactory().createParser(in)) {
+                chunkParser.nextToken();
+                List<Event> result = new ArrayList<>(expected);
+                while (chunkParser.nextToken() == JsonToken.START_OBJECT)
+                    result.add(readEvent(chunkParser));
+                return result;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private Event readEvent(JsonParser parser) throws IOException {
+        Event event = new Event();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value.isScalarValue()) {
+                event.set(name, value == JsonToken.VALUE_NULL ? null : parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return event;
+    }
+}
@@ -0,0 +1,93 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Streams a snapshot through a JsonGenerator into a temp file alongside the target, fsyncs it
+// and atomically renames it over the target, so a crash mid-write never damages the last good copy
+@ApplicationScoped
+public class SnapshotWriter {
+    private static final Logger log = Logger.getLogger(SnapshotWriter.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "ninja.database.pretty-print", defaultValue = "false")
+    boolean prettyPrint;
+
+    @ConfigProperty(name = "ninja.database.format", defaultValue = "json")
+    String format;
+
+    @ConfigProperty(name = "ninja.database.compress", defaultValue = "false")
+    boolean compress;
+
+    private ObjectMapper formatMapper;
+
+    public void write(File target, Object value) throws IOException {
+        Path path = target.toPath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            GZIPOutputStream gzip = compress ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+            ObjectMapper mapper = mapper();
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(null != gzip ? gzip : out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // keep the channel open for the fsync
+                writer(mapper).writeValue(generator, value);
+            }
+            if (null != gzip) gzip.finish();
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    private synchronized ObjectMapper mapper() {
+        if (null == formatMapper) {
+            SnapshotFormat f = SnapshotFormat.parse(format);
+            formatMapper = f == SnapshotFormat.JSON ? objectMapper : objectMapper.copyWith(f.factory());
+            log.info("Database snapshots will be written as " + f + (compress ? " (gzip)" : ""));
+        }
+        return formatMapper;
+    }
+
+    private ObjectWriter writer(ObjectMapper mapper) {
+        // indentation only means something for text json
+        return prettyPrint && mapper == objectMapper ? mapper.writerWithDefaultPrettyPrinter() : mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    // make the rename itself durable; not every platform lets you open a directory, which is fine
+    public static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to fsync directory " + dir + ": " + e.getMessage());
+        }
+    }
+}
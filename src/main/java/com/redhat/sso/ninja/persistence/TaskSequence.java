@@ -0,0 +1,124 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.Config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Task ids. Numbers are handed out from an atomic counter within a block reserved in advance:
+// only the end of the reserved block is written (to taskSequenceFile), once per block-size tasks,
+// and the next block is reserved in the background once half the current one is used. After a
+// restart numbering carries on past the last reserved block, so ids stay unique but the unused
+// rest of that block is skipped. The first start also carries on from the config's lastTaskNum,
+// where ids used to be kept
+@ApplicationScoped
+public class TaskSequence {
+    private static final Logger log = Logger.getLogger(TaskSequence.class);
+    static final String LEGACY_KEY = "lastTaskNum";
+
+    @Inject
+    @Named("taskSequenceFile")
+    File file;
+
+    @Inject
+    Config config;
+
+    @ConfigProperty(name = "ninja.tasks.id-block-size", defaultValue = "100")
+    int blockSize;
+
+    private final AtomicLong last = new AtomicLong(); // the last id handed out
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+    private volatile long reserved; // ids up to here are covered by the mark on disk
+
+    @PostConstruct
+    void init() {
+        blockSize = Math.max(1, blockSize);
+        long mark = Math.max(read(), legacy());
+        last.set(mark);
+        reserved = mark;
+        log.debugf("Task ids continue from %d", mark);
+    }
+
+    public String next() {
+        long id = last.incrementAndGet();
+        if (id > reserved) {
+            reserve(id); // the block ran out before the next one was reserved
+        } else if (reserved - id < blockSize / 2 && prefetching.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    reserve(reserved + 1);
+                } catch (UncheckedIOException e) {
+                    log.errorf(e, "Unable to reserve task ids past %d", reserved);
+                } finally {
+                    prefetching.set(false);
+                }
+            });
+        }
+        return String.valueOf(id);
+    }
+
+    // writes a mark covering id plus the rest of a block; nothing is handed out past what's on disk
+    private synchronized void reserve(long id) {
+        if (id <= reserved && reserved - id >= blockSize / 2) return; // someone else got there first
+        long mark = Math.max(id, reserved) + blockSize - 1;
+        try {
+            write(mark);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to reserve task ids up to " + mark, e);
+        }
+        reserved = mark;
+    }
+
+    private long read() {
+        if (!file.exists()) return 0;
+        try {
+            return Long.parseLong(Files.readString(file.toPath(), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Unreadable task sequence file " + file.getAbsolutePath(), e);
+        }
+    }
+
+    // the mark must be on disk before any id it covers is handed out, so the temp file is fsynced
+    // before the rename and the directory after it (as SnapshotWriter does)
+    private void write(long mark) throws IOException {
+        Path path = file.toPath();
+        if (!file.getAbsoluteFile().getParentFile().exists()) file.getAbsoluteFile().getParentFile().mkdirs();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(Long.toString(mark).getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        SnapshotWriter.syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    private long legacy() {
+        Object value = config.getValues().get(LEGACY_KEY);
+        if (value instanceof Number) return ((Number) value).longValue();
+        return null != value && value.toString().matches("\\d+") ? Long.parseLong(value.toString()) : 0;
+    }
+}
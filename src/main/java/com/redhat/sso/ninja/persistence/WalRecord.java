@@ -0,0 +1,133 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// One line of the write-ahead log. Records describe the physical change made to the
+// database (not the call that caused it) so replaying them never needs to re-run logic.
+// lsn is the record's position in the log, given by WriteAheadLog.append; records from
+// older logs have none
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WalRecord {
+    public static final String INCREMENT = "inc";
+    public static final String EVENT = "event"; // events now have their own log, kept for replaying older logs
+    public static final String TASK = "task";
+    public static final String USER = "user";
+    public static final String SCORECARD = "score";
+    public static final String DEDUP = "dedup";
+
+    private Long lsn;
+    private String op;
+    private String user;
+    private String pool;
+    private Integer points;
+    private Map<String, String> data;
+    private Map<String, Integer> scores;
+    private String key;
+
+    public WalRecord() {
+    }
+
+    private WalRecord(String op) {
+        this.op = op;
+    }
+
+    public static WalRecord increment(String user, String pool, Integer points) {
+        WalRecord r = new WalRecord(INCREMENT);
+        r.user = user;
+        r.pool = pool;
+        r.points = points;
+        return r;
+    }
+
+    public static WalRecord task(Map<String, String> task) {
+        WalRecord r = new WalRecord(TASK);
+        r.data = task;
+        return r;
+    }
+
+    public static WalRecord user(String user, Map<String, String> userInfo) {
+        WalRecord r = new WalRecord(USER);
+        r.user = user;
+        r.data = userInfo;
+        return r;
+    }
+
+    public static WalRecord scorecard(String user, Map<String, Integer> scorecard) {
+        WalRecord r = new WalRecord(SCORECARD);
+        r.user = user;
+        r.scores = scorecard;
+        return r;
+    }
+
+    public static WalRecord dedup(String key) {
+        WalRecord r = new WalRecord(DEDUP);
+        r.key = key;
+        return r;
+    }
+
+    public Long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(Long lsn) {
+        this.lsn = lsn;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    public void setPool(String pool) {
+        this.pool = pool;
+    }
+
+    public Integer getPoints() {
+        return points;
+    }
+
+    public void setPoints(Integer points) {
+        this.points = points;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, String> data) {
+        this.data = data;
+    }
+
+    public Map<String, Integer> getScores() {
+        return scores;
+    }
+
+    public void setScores(Map<String, Integer> scores) {
+        this.scores = scores;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+}
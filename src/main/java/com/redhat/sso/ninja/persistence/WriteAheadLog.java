@@ -0,0 +1,185 @@
+package com.redhat.sso.ninja.persistence;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Append-only log of database mutations, one compact JSON record per line. The snapshot
+// (database2.json) plus this log is the full state; a checkpoint rewrites the snapshot and
+// truncates the log. Every record gets the next log sequence number (lsn) and the snapshot
+// stores the position it was taken at, so records it already holds are skipped on replay
+// even if the log wasn't truncated after it (ie. a crash in between). Appends only buffer the
+// record in memory, flush() writes and fsyncs everything buffered since the last flush in one go
+// (see PersistenceScheduler) without holding up the appends that arrive meanwhile
+@ApplicationScoped
+public class WriteAheadLog {
+    private static final Logger log = Logger.getLogger(WriteAheadLog.class);
+
+    @Inject
+    @Named("databaseWalFile")
+    File walFile;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "ninja.database.wal.checkpoint.records", defaultValue = "10000")
+    int checkpointRecords;
+
+    @ConfigProperty(name = "ninja.database.wal.sync", defaultValue = "true")
+    boolean sync;
+
+    private final Object flushLock = new Object(); // one writer on the channel at a time, taken before the monitor
+    private FileChannel channel;
+    private ObjectWriter writer;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int records = 0;
+    private long position = 0; // lsn of the last record appended
+
+    private void open() throws IOException {
+        if (!walFile.getParentFile().exists())
+            walFile.getParentFile().mkdirs();
+        channel = FileChannel.open(walFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // fails (rather than losing the record) if it can't be logged, call before applying the change
+    public synchronized void append(WalRecord record) {
+        try {
+            if (null == writer) writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+            record.setLsn(position + 1);
+            pending.write(writer.writeValueAsBytes(record));
+            pending.write('\n');
+            position++;
+            records++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to write-ahead log", e);
+        }
+    }
+
+    // the lsn of the last record appended, for the snapshot to store
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    // the buffer is swapped out under the monitor and written and fsynced outside it, so appends
+    // carry on into a fresh one meanwhile
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            ByteArrayOutputStream batch;
+            synchronized (this) {
+                if (pending.size() == 0) return;
+                batch = pending;
+                pending = new ByteArrayOutputStream();
+            }
+            try {
+                if (null == channel) open();
+                ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+                while (buf.hasRemaining())
+                    channel.write(buf);
+                if (sync) channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) { // kept for the next flush, ahead of what was appended since
+                    batch.writeBytes(pending.toByteArray());
+                    pending = batch;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // true once enough records have accumulated that replaying them would cost more than a checkpoint
+    public synchronized boolean needsCheckpoint() {
+        return records >= checkpointRecords;
+    }
+
+    // applies the records logged after the given position (that of the snapshot just loaded) and
+    // carries on numbering after the highest seen
+    public synchronized int replay(long after, Consumer<WalRecord> apply) throws IOException {
+        position = Math.max(position, after);
+        if (!walFile.exists() || walFile.length() == 0) return 0;
+        long s = System.currentTimeMillis();
+        int count = 0;
+        int skipped = 0;
+        try (FileChannel in = FileChannel.open(walFile.toPath(), StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(in), StandardCharsets.UTF_8))) {
+            String line;
+            String next = reader.readLine();
+            while ((line = next) != null) {
+                next = reader.readLine();
+                if (line.isBlank()) continue;
+                WalRecord record;
+                try {
+                    record = objectMapper.readValue(line, WalRecord.class);
+                } catch (IOException e) {
+                    if (null == next) { // a torn write at the tail is expected after a crash
+                        log.warn("Ignoring incomplete trailing write-ahead log record");
+                        break;
+                    }
+                    throw e;
+                }
+                if (null != record.getLsn()) {
+                    position = Math.max(position, record.getLsn());
+                    if (record.getLsn() <= after) { // already in the snapshot
+                        skipped++;
+                        continue;
+                    }
+                }
+                apply.accept(record);
+                count++;
+            }
+        }
+        records = count;
+        log.info("Write-ahead log replayed (" + count + " records, " + skipped + " already in the snapshot, " + (System.currentTimeMillis() - s) + "ms)");
+        return count;
+    }
+
+    // only call once the snapshot holding every logged (and buffered) change has been written
+    public void truncate() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                try {
+                    if (null == channel) open();
+                    channel.truncate(0);
+                    channel.force(true);
+                    pending.reset();
+                    records = 0;
+                } catch (IOException e) {
+                    log.error("Failed to truncate write-ahead log", e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        synchronized (flushLock) {
+            try {
+                if (null != channel) channel.close();
+            } catch (IOException e) {
+                log.error("Failed to close write-ahead log", e);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import org.jboss.logging.Logger;
+
+// Past years' belts per user, parsed once from scorecardHistory (year -> user -> "belt|total")
+// whenever the history changes rather than on every leaderboard request. Also holds each
+// user's badges already joined into the "year|belt|total,..." form the charts' custom2 uses
+public final class BadgeIndex {
+    private static final Logger log = Logger.getLogger(BadgeIndex.class);
+    public static final BadgeIndex EMPTY = new BadgeIndex(Collections.emptyMap(), Collections.emptyMap());
+
+    public static final class Badge {
+        private final String year;
+        private final String beltName; // as recorded, belts can be renamed in the thresholds option
+        private final int total;
+
+        Badge(String year, String beltName, int total) {
+            this.year = year;
+            this.beltName = beltName;
+            this.total = total;
+        }
+
+        public String getYear() {
+            return year;
+        }
+
+        public String getBeltName() {
+            return beltName;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return year + "|" + beltName + "|" + total;
+        }
+    }
+
+    private final Map<String, List<Badge>> badges;
+    private final Map<String, String> custom2;
+
+    private BadgeIndex(Map<String, List<Badge>> badges, Map<String, String> custom2) {
+        this.badges = badges;
+        this.custom2 = custom2;
+    }
+
+    public static BadgeIndex of(Map<String, Map<String, String>> history) {
+        if (null == history || history.isEmpty()) return EMPTY;
+        Map<String, List<Badge>> badges = new HashMap<>();
+        for (Entry<String, Map<String, String>> year : new TreeMap<>(history).entrySet()) { // oldest year first
+            if (null == year.getValue()) continue;
+            for (Entry<String, String> e : year.getValue().entrySet()) {
+                Badge badge = parse(year.getKey(), e.getKey(), e.getValue());
+                if (null != badge) badges.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(badge);
+            }
+        }
+        Map<String, String> custom2 = new HashMap<>();
+        for (Entry<String, List<Badge>> e : badges.entrySet()) {
+            StringJoiner joiner = new StringJoiner(",");
+            for (Badge badge : e.getValue())
+                joiner.add(badge.toString());
+            custom2.put(e.getKey(), joiner.toString());
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        return new BadgeIndex(Collections.unmodifiableMap(badges), Collections.unmodifiableMap(custom2));
+    }
+
+    private static Badge parse(String year, String userId, String beltAndTotal) {
+        int separator = null != beltAndTotal ? beltAndTotal.indexOf('|') : -1;
+        if (separator < 0) {
+            log.warn("Ignoring " + year + " history for " + userId + ", expected belt|total but found: " + beltAndTotal);
+            return null;
+        }
+        try {
+            return new Badge(year, beltAndTotal.substring(0, separator), Integer.parseInt(beltAndTotal.substring(separator + 1).trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring " + year + " history for " + userId + ", total isn't a number: " + beltAndTotal);
+            return null;
+        }
+    }
+
+    // oldest year first
+    public List<Badge> getBadges(String userId) {
+        return badges.getOrDefault(userId, Collections.emptyList());
+    }
+
+    // "year|belt|total" for each past year, comma separated; empty if there are none
+    public String getCustom2(String userId) {
+        return custom2.getOrDefault(userId, "");
+    }
+}
@@ -0,0 +1,120 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+// An immutable, versioned copy of the board (users, their scorecards and the past years'
+// history) for readers. Writers build the next version from the previous one, replacing only
+// the entries that changed (the maps are PersistentMaps, so that costs O(log n) rather than a
+// copy of the board), and publish it with a single volatile write in Database2; readers
+// take it with a single volatile read and never see a half applied change or need a lock.
+// The ranking of registered users by total and the parsed history are kept alongside, see
+// RankedIndex and BadgeIndex
+public final class BoardSnapshot {
+    public static final BoardSnapshot EMPTY = new BoardSnapshot(0, PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty(), RankedIndex.EMPTY, BadgeIndex.EMPTY);
+
+    private final long version;
+    private final PersistentMap<Map<String, String>> users;
+    private final PersistentMap<Map<String, Integer>> scorecards;
+    private final PersistentMap<Map<String, String>> history;
+    private final RankedIndex ranking;
+    private final BadgeIndex badges;
+
+    private BoardSnapshot(long version, PersistentMap<Map<String, String>> users, PersistentMap<Map<String, Integer>> scorecards, PersistentMap<Map<String, String>> history, RankedIndex ranking, BadgeIndex badges) {
+        this.version = version;
+        this.users = users;
+        this.scorecards = scorecards;
+        this.history = history;
+        this.ranking = ranking;
+        this.badges = badges;
+    }
+
+    public static BoardSnapshot of(long version, Map<String, Map<String, String>> users, Map<String, Map<String, Integer>> scorecards, Map<String, Map<String, String>> history) {
+        PersistentMap<Map<String, String>> usersCopy = copyAll(users);
+        PersistentMap<Map<String, Integer>> scorecardsCopy = copyAll(scorecards);
+        RankedIndex ranking = RankedIndex.EMPTY;
+        for (String userId : usersCopy.keySet())
+            ranking = ranking.update(userId, null, total(scorecardsCopy.get(userId)));
+        PersistentMap<Map<String, String>> historyCopy = copyAll(history);
+        return new BoardSnapshot(version, usersCopy, scorecardsCopy, historyCopy, ranking, BadgeIndex.of(historyCopy));
+    }
+
+    // the next version with one user's info and scorecard replaced (or removed when null)
+    public BoardSnapshot with(long nextVersion, String userId, Map<String, String> userInfo, Map<String, Integer> scorecard) {
+        PersistentMap<Map<String, Integer>> nextScorecards = replace(scorecards, userId, scorecard);
+        RankedIndex nextRanking = ranking.update(userId, getTotal(userId), null != userInfo ? total(nextScorecards.get(userId)) : null);
+        return new BoardSnapshot(nextVersion, replace(users, userId, userInfo), nextScorecards, history, nextRanking, badges);
+    }
+
+    private static int total(Map<String, Integer> scorecard) {
+        int total = 0;
+        if (null != scorecard) {
+            for (Integer points : scorecard.values())
+                total += points;
+        }
+        return total;
+    }
+
+    // only the user's own map is copied, the rest of the board is shared with the previous version
+    private static <V> PersistentMap<Map<String, V>> replace(PersistentMap<Map<String, V>> map, String key, Map<String, V> value) {
+        return null == value ? map.without(key) : map.with(key, copy(value));
+    }
+
+    private static <V> PersistentMap<Map<String, V>> copyAll(Map<String, Map<String, V>> map) {
+        PersistentMap<Map<String, V>> result = PersistentMap.empty();
+        if (null != map) {
+            for (Entry<String, Map<String, V>> e : map.entrySet())
+                if (null != e.getValue()) result = result.with(e.getKey(), copy(e.getValue()));
+        }
+        return result;
+    }
+
+    private static <V> Map<String, V> copy(Map<String, V> map) {
+        return Collections.unmodifiableMap(new HashMap<>(map));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Map<String, String>> getUsers() {
+        return users;
+    }
+
+    public Map<String, Map<String, Integer>> getScoreCards() {
+        return scorecards;
+    }
+
+    public Map<String, Map<String, String>> getScorecardHistory() {
+        return history;
+    }
+
+    public RankedIndex getRanking() {
+        return ranking;
+    }
+
+    public BadgeIndex getBadges() {
+        return badges;
+    }
+
+    // total points of a registered user, null for anyone else
+    public Integer getTotal(String userId) {
+        return users.containsKey(userId) ? total(scorecards.get(userId)) : null;
+    }
+
+    // 0 based position on the leaderboard, -1 if not registered
+    public int rankOf(String userId) {
+        Integer total = getTotal(userId);
+        return null == total ? -1 : ranking.rankOf(userId, total);
+    }
+
+    // every registered user with their scorecard (empty if they've no points yet)
+    public Map<String, Map<String, Integer>> getLeaderboard() {
+        Map<String, Map<String, Integer>> leaderboard = new HashMap<>();
+        for (String userId : users.keySet())
+            leaderboard.put(userId, scorecards.getOrDefault(userId, Collections.emptyMap()));
+        return leaderboard;
+    }
+}
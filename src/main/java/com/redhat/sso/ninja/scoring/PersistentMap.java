@@ -0,0 +1,198 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+// An immutable map keyed by user id, as a treap ordered by key (the same structure as
+// RankedIndex). with() and without() copy only the O(log n) nodes on the path to the key and
+// share the rest with the previous version, so a BoardSnapshot can replace one user's entries
+// without copying the whole board. Lookups are O(log n), iteration is in key order
+public final class PersistentMap<V> extends AbstractMap<String, V> {
+    private static final PersistentMap<?> EMPTY = new PersistentMap<>(null);
+
+    private static final class Node<V> implements Map.Entry<String, V> {
+        final String key;
+        final V value;
+        final int priority;
+        final Node<V> left;
+        final Node<V> right;
+        final int size;
+
+        Node(String key, V value, int priority, Node<V> left, Node<V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+
+        Node<V> with(Node<V> left, Node<V> right) {
+            return new Node<>(key, value, priority, left, right);
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private final Node<V> root;
+
+    private PersistentMap(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    private static int size(Node<?> node) {
+        return null == node ? 0 : node.size;
+    }
+
+    private static int priority(String key) {
+        int h = key.hashCode() * 0x9E3779B9; // spread similar ids apart
+        return h ^ (h >>> 16);
+    }
+
+    // the next version with the key mapped to value (which must not be null)
+    public PersistentMap<V> with(String key, V value) {
+        Objects.requireNonNull(value, "value for " + key);
+        return new PersistentMap<>(put(root, key, value, priority(key)));
+    }
+
+    // the next version without the key, this one if it wasn't there
+    public PersistentMap<V> without(String key) {
+        Node<V> node = remove(root, key);
+        return node == root ? this : new PersistentMap<>(node);
+    }
+
+    private static <V> Node<V> put(Node<V> node, String key, V value, int priority) {
+        if (null == node) return new Node<>(key, value, priority, null, null);
+        int c = key.compareTo(node.key);
+        if (c == 0) return new Node<>(key, value, node.priority, node.left, node.right);
+        if (c < 0) {
+            Node<V> left = put(node.left, key, value, priority);
+            if (left.priority > node.priority) return left.with(left.left, node.with(left.right, node.right)); // rotate right
+            return node.with(left, node.right);
+        }
+        Node<V> right = put(node.right, key, value, priority);
+        if (right.priority > node.priority) return right.with(node.with(node.left, right.left), right.right); // rotate left
+        return node.with(node.left, right);
+    }
+
+    private static <V> Node<V> remove(Node<V> node, String key) {
+        if (null == node) return null;
+        int c = key.compareTo(node.key);
+        if (c == 0) return merge(node.left, node.right);
+        if (c < 0) {
+            Node<V> left = remove(node.left, key);
+            return left == node.left ? node : node.with(left, node.right);
+        }
+        Node<V> right = remove(node.right, key);
+        return right == node.right ? node : node.with(node.left, right);
+    }
+
+    private static <V> Node<V> merge(Node<V> left, Node<V> right) {
+        if (null == left) return right;
+        if (null == right) return left;
+        if (left.priority > right.priority) return left.with(left.left, merge(left.right, right));
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    private Node<V> find(Object key) {
+        if (!(key instanceof String)) return null;
+        String k = (String) key;
+        Node<V> node = root;
+        while (null != node) {
+            int c = k.compareTo(node.key);
+            if (c == 0) return node;
+            node = c < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<V> node = find(key);
+        return null == node ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return null != find(key);
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                Deque<Node<V>> path = new ArrayDeque<>();
+                for (Node<V> n = root; null != n; n = n.left)
+                    path.push(n);
+                return new Iterator<Map.Entry<String, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return !path.isEmpty();
+                    }
+
+                    @Override
+                    public Map.Entry<String, V> next() {
+                        if (path.isEmpty()) throw new NoSuchElementException();
+                        Node<V> current = path.pop();
+                        for (Node<V> n = current.right; null != n; n = n.left)
+                            path.push(n);
+                        return current;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PersistentMap.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import com.redhat.sso.ninja.utils.LevelTable;
+import com.redhat.sso.ninja.utils.LevelsUtil;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// Works out which users are due a new belt: those whose total has reached a level above the base
+// and above the one they hold. Users without a level, or with one that isn't in the thresholds,
+// are left alone, and belts are never taken away here, not even when the thresholds are raised. Database2 applies what's found (see
+// Database2.promote) for the users a batch of increments touched, or for everyone via
+// Database2.relevel when the thresholds change
+@ApplicationScoped
+public class PromotionEngine {
+
+    @Inject
+    LevelsUtil levelsUtil;
+
+    public static final class Promotion {
+        private final String userId;
+        private final String from;
+        private final String to;
+
+        Promotion(String userId, String from, String to) {
+            this.userId = userId;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        // the level the user held when this was worked out
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+    }
+
+    public List<Promotion> evaluate(Map<String, Map<String, String>> users, Map<String, Map<String, Integer>> scorecards, Collection<String> userIds) {
+        LevelTable levels = levelsUtil.getTable();
+        List<Promotion> promotions = new ArrayList<>();
+        for (String userId : userIds) {
+            Promotion promotion = due(levels, userId, users.get(userId), scorecards.get(userId));
+            if (null != promotion) promotions.add(promotion);
+        }
+        return promotions;
+    }
+
+    // every registered user, evaluated in parallel
+    public List<Promotion> evaluateAll(Map<String, Map<String, String>> users, Map<String, Map<String, Integer>> scorecards) {
+        LevelTable levels = levelsUtil.getTable();
+        return users.keySet().parallelStream()
+                .map(userId -> due(levels, userId, users.get(userId), scorecards.get(userId)))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private static Promotion due(LevelTable levels, String userId, Map<String, String> userInfo, Map<String, Integer> scorecard) {
+        if (null == userInfo) return null;
+        String level = userInfo.get("level");
+        int held = levels.positionOf(level);
+        if (held < 0) return null;
+        int reached = levels.positionFor(total(scorecard));
+        if (reached <= 0 || reached <= held) return null;
+        String to = levels.get(reached).getRight();
+        if (to.equals(level)) return null; // the same name listed at two thresholds
+        return new Promotion(userId, level, to);
+    }
+
+    private static int total(Map<String, Integer> scorecard) {
+        if (null == scorecard) return 0;
+        if (scorecard instanceof ScoreCard) return ((ScoreCard) scorecard).total();
+        int total = 0;
+        for (Integer points : scorecard.values())
+            if (null != points) total += points;
+        return total;
+    }
+}
@@ -0,0 +1,200 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Users ordered by total points (highest first, ties by user id) as an immutable treap where
+// every node knows the size of its subtree. Updates copy only the O(log n) nodes on the path
+// they change and share the rest with the previous version, so each BoardSnapshot carries its
+// own index cheaply. Rank and position lookups are O(log n), reading the top N is O(log n + N).
+// Node priorities are a hash of the user id, so the shape depends only on the contents
+public final class RankedIndex implements Iterable<RankedIndex.Entry> {
+    public static final RankedIndex EMPTY = new RankedIndex(null);
+
+    public static final class Entry {
+        private final String userId;
+        private final int total;
+
+        Entry(String userId, int total) {
+            this.userId = userId;
+            this.total = total;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    private static final class Node {
+        final Entry entry;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(Entry entry, int priority, Node left, Node right) {
+            this.entry = entry;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(entry, priority, left, right);
+        }
+    }
+
+    private final Node root;
+
+    private RankedIndex(Node root) {
+        this.root = root;
+    }
+
+    private static int size(Node node) {
+        return null == node ? 0 : node.size;
+    }
+
+    private static int priority(String userId) {
+        int h = userId.hashCode() * 0x9E3779B9; // spread similar ids apart
+        return h ^ (h >>> 16);
+    }
+
+    // negative if a ranks above b
+    private static int compare(int totalA, String userA, int totalB, String userB) {
+        if (totalA != totalB) return totalA > totalB ? -1 : 1;
+        return userA.compareTo(userB);
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    // the previous total must be the one the user was indexed with
+    public RankedIndex update(String userId, Integer previousTotal, Integer total) {
+        Node node = root;
+        if (null != previousTotal) node = remove(node, userId, previousTotal);
+        if (null != total) node = insert(node, new Node(new Entry(userId, total), priority(userId), null, null));
+        return new RankedIndex(node);
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (null == node) return added;
+        if (added.priority > node.priority) {
+            Node[] parts = split(node, added.entry.total, added.entry.userId);
+            return added.with(parts[0], parts[1]);
+        }
+        if (compare(added.entry.total, added.entry.userId, node.entry.total, node.entry.userId) < 0)
+            return node.with(insert(node.left, added), node.right);
+        return node.with(node.left, insert(node.right, added));
+    }
+
+    // [entries ranked above the key, entries ranked at or below it]
+    private static Node[] split(Node node, int total, String userId) {
+        if (null == node) return new Node[2];
+        if (compare(node.entry.total, node.entry.userId, total, userId) < 0) {
+            Node[] parts = split(node.right, total, userId);
+            return new Node[] { node.with(node.left, parts[0]), parts[1] };
+        }
+        Node[] parts = split(node.left, total, userId);
+        return new Node[] { parts[0], node.with(parts[1], node.right) };
+    }
+
+    private static Node remove(Node node, String userId, int total) {
+        if (null == node) return null;
+        int c = compare(total, userId, node.entry.total, node.entry.userId);
+        if (c == 0) return merge(node.left, node.right);
+        if (c < 0) {
+            Node left = remove(node.left, userId, total);
+            return left == node.left ? node : node.with(left, node.right);
+        }
+        Node right = remove(node.right, userId, total);
+        return right == node.right ? node : node.with(node.left, right);
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (null == left) return right;
+        if (null == right) return left;
+        if (left.priority > right.priority) return left.with(left.left, merge(left.right, right));
+        return right.with(merge(left, right.left), right.right);
+    }
+
+    // 0 based position of the user, -1 if they aren't indexed with that total
+    public int rankOf(String userId, int total) {
+        Node node = root;
+        int rank = 0;
+        while (null != node) {
+            int c = compare(total, userId, node.entry.total, node.entry.userId);
+            if (c == 0) return rank + size(node.left);
+            if (c < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return -1;
+    }
+
+    public Entry get(int rank) {
+        if (rank < 0 || rank >= size()) throw new IndexOutOfBoundsException("Rank: " + rank + ", Size: " + size());
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (rank == leftSize) return node.entry;
+            if (rank < leftSize) {
+                node = node.left;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // highest first
+    @Override
+    public Iterator<Entry> iterator() {
+        return iterator(0);
+    }
+
+    // highest first, starting at the given 0 based rank
+    public Iterator<Entry> iterator(int fromRank) {
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        int skip = Math.max(0, fromRank);
+        while (null != node) { // leave the path to the starting node on the stack
+            int leftSize = size(node.left);
+            if (skip < leftSize) {
+                path.push(node);
+                node = node.left;
+            } else if (skip == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                skip -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new Iterator<Entry>() {
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Entry next() {
+                if (path.isEmpty()) throw new NoSuchElementException();
+                Node current = path.pop();
+                for (Node n = current.right; null != n; n = n.left)
+                    path.push(n);
+                return current.entry;
+            }
+        };
+    }
+}
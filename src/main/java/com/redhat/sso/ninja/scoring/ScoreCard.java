@@ -0,0 +1,112 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// A user's points per pool. Each pool is its own LongAdder so concurrent increments, even to
+// the same pool, never lose an update and don't contend on a shared lock.
+//
+// Consistency for readers: every get() sees a value that was correct at some instant, but
+// iterating (or total()) is weakly consistent - each pool is read at a slightly different
+// moment, so a card being incremented may show some of the concurrent increments and not
+// others. Nothing is ever torn or lost, and once writers stop every reader sees the final values.
+// Readers that need the whole board at one instant should use a published snapshot instead
+public class ScoreCard extends AbstractMap<String, Integer> {
+    private final ConcurrentHashMap<String, LongAdder> cells = new ConcurrentHashMap<>();
+
+    public ScoreCard() {
+    }
+
+    public ScoreCard(Map<String, Integer> scores) {
+        if (null != scores) putAll(scores);
+    }
+
+    public static ScoreCard of(Map<String, Integer> scores) {
+        return scores instanceof ScoreCard ? (ScoreCard) scores : new ScoreCard(scores);
+    }
+
+    public void add(String pool, int points) {
+        cells.computeIfAbsent(pool, k -> new LongAdder()).add(points);
+    }
+
+    public int total() {
+        long total = 0;
+        for (LongAdder cell : cells.values())
+            total += cell.sum();
+        return (int) total;
+    }
+
+    @Override
+    public Integer get(Object pool) {
+        LongAdder cell = cells.get(pool);
+        return null == cell ? null : (int) cell.sum();
+    }
+
+    @Override
+    public boolean containsKey(Object pool) {
+        return cells.containsKey(pool);
+    }
+
+    // an increment racing with this lands on top of the new value
+    @Override
+    public Integer put(String pool, Integer points) {
+        if (null == points) throw new NullPointerException("points for " + pool);
+        LongAdder cell = cells.computeIfAbsent(pool, k -> new LongAdder());
+        long previous = cell.sumThenReset();
+        cell.add(points);
+        return (int) previous;
+    }
+
+    @Override
+    public Integer remove(Object pool) {
+        LongAdder cell = cells.remove(pool);
+        return null == cell ? null : (int) cell.sum();
+    }
+
+    @Override
+    public void clear() {
+        cells.clear();
+    }
+
+    @Override
+    public int size() {
+        return cells.size();
+    }
+
+    @Override
+    public Set<Entry<String, Integer>> entrySet() {
+        return new AbstractSet<Entry<String, Integer>>() {
+            @Override
+            public Iterator<Entry<String, Integer>> iterator() {
+                Iterator<Entry<String, LongAdder>> it = cells.entrySet().iterator();
+                return new Iterator<Entry<String, Integer>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Integer> next() {
+                        Entry<String, LongAdder> e = it.next();
+                        return new SimpleImmutableEntry<>(e.getKey(), (int) e.getValue().sum());
+                    }
+
+                    @Override
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return cells.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,213 @@
+package com.redhat.sso.ninja.scoring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+// The scorecards page as columns rather than one map per user: ids, names and levels are
+// arrays indexed by row, totals and every pool are int arrays. It's built once per board
+// version, a page is then just a filter over the rows, one primitive sort and the few row
+// maps actually sent. Pool columns come from a shared dictionary so the pool -> title
+// conversion is done once per pool, not per cell
+public final class ScorecardTable {
+    public static final String NAME = "name";
+    public static final String TOTAL = "total";
+    public static final String LEVEL = "level";
+    public static final String TO_NEXT_LEVEL = "pointsToNextLevel";
+    private static final int FIXED_COLUMNS = 4; // name, total, level, pointsToNextLevel
+
+    private final long version;
+    private final String[] ids;
+    private final String[] names;
+    private final String[] levels;
+    private final int[] totals;
+    private final int[] toNextLevel;
+    private final String[] poolTitles;
+    private final int[][] pools; // [column][row]
+    // position of each row when sorted by name / level, so text columns sort as ints too
+    private final int[] nameOrder;
+    private final int[] levelOrder;
+    private final String[] searchText; // lower cased id, name and level
+
+    // a pool's column title: the pool id with dots as spaces; pools with the same title share a column
+    public static final class PoolDictionary {
+        private final Map<String, String> titles = new ConcurrentHashMap<>();
+
+        public String title(String pool) {
+            return titles.computeIfAbsent(pool, p -> p.replace('.', ' '));
+        }
+    }
+
+    private ScorecardTable(long version, int rows, List<String> poolTitles) {
+        this.version = version;
+        this.ids = new String[rows];
+        this.names = new String[rows];
+        this.levels = new String[rows];
+        this.totals = new int[rows];
+        this.toNextLevel = new int[rows];
+        this.poolTitles = poolTitles.toArray(new String[0]);
+        this.pools = new int[poolTitles.size()][rows];
+        this.nameOrder = new int[rows];
+        this.levelOrder = new int[rows];
+        this.searchText = new String[rows];
+    }
+
+    // nextLevelPoints gives the threshold of the level after the given one, null if the level isn't known
+    public static ScorecardTable build(BoardSnapshot board, PoolDictionary dictionary, Function<String, Integer> nextLevelPoints) {
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        for (Map<String, Integer> scorecard : board.getScoreCards().values())
+            for (String pool : scorecard.keySet())
+                columns.putIfAbsent(dictionary.title(pool), columns.size());
+
+        List<Entry<String, Map<String, String>>> users = new ArrayList<>(board.getUsers().entrySet());
+        ScorecardTable table = new ScorecardTable(board.getVersion(), users.size(), new ArrayList<>(columns.keySet()));
+        for (int row = 0; row < users.size(); row++) {
+            String userId = users.get(row).getKey();
+            Map<String, String> userInfo = users.get(row).getValue();
+            Map<String, Integer> scorecard = board.getScoreCards().get(userId);
+            table.ids[row] = userId;
+            table.names[row] = userInfo.containsKey("displayName") ? userInfo.get("displayName") : userId;
+            int total = 0;
+            if (null != scorecard) {
+                for (Entry<String, Integer> e : scorecard.entrySet()) {
+                    table.pools[columns.get(dictionary.title(e.getKey()))][row] += e.getValue();
+                    total += e.getValue();
+                }
+                table.levels[row] = userInfo.get("level");
+            } else {
+                table.levels[row] = "ZERO";
+            }
+            table.totals[row] = total;
+            Integer next = nextLevelPoints.apply(userInfo.get("level"));
+            table.toNextLevel[row] = null == next ? 0 : Math.max(0, next - total);
+            table.searchText[row] = (userId + "\n" + table.names[row] + "\n" + table.levels[row]).toLowerCase();
+        }
+        rank(table.names, table.nameOrder);
+        rank(table.levels, table.levelOrder);
+        return table;
+    }
+
+    private static void rank(String[] values, int[] order) {
+        Integer[] rows = new Integer[values.length];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = i;
+        Arrays.sort(rows, Comparator.comparing((Integer i) -> values[i], Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)));
+        for (int i = 0; i < rows.length; i++)
+            order[rows[i]] = i;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // column definitions for DataTables, in the order the order[i][column] parameter refers to
+    public List<Map<String, String>> getColumns() {
+        List<Map<String, String>> columns = new ArrayList<>();
+        columns.add(column("Name", NAME));
+        columns.add(column("Total", TOTAL));
+        columns.add(column("Ninja Belt", LEVEL));
+        columns.add(column("Points to next level", TO_NEXT_LEVEL));
+        for (String title : poolTitles)
+            columns.add(column(title, title));
+        return columns;
+    }
+
+    private static Map<String, String> column(String title, String data) {
+        Map<String, String> column = new LinkedHashMap<>();
+        column.put("title", title);
+        column.put("data", data);
+        return column;
+    }
+
+    // rows matching the search (case insensitive, on id, name or level), sorted by the column index
+    public int[] query(String search, int orderColumn, boolean descending) {
+        int[] matches = new int[size()];
+        int count = 0;
+        String term = null == search || search.isBlank() ? null : search.trim().toLowerCase();
+        for (int row = 0; row < size(); row++) {
+            if (null == term || searchText[row].contains(term))
+                matches[count++] = row;
+        }
+        IntUnaryOperator key = sortKey(orderColumn);
+        if (null == key) return Arrays.copyOf(matches, count);
+
+        // sort key in the high half, row in the low half: one primitive sort, ties stay in row order
+        long[] keyed = new long[count];
+        for (int i = 0; i < count; i++)
+            keyed[i] = ((long) key.applyAsInt(matches[i]) << 32) | matches[i];
+        Arrays.sort(keyed);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++)
+            result[descending ? count - 1 - i : i] = (int) keyed[i];
+        return result;
+    }
+
+    private IntUnaryOperator sortKey(int column) {
+        switch (column) {
+            case 0: return row -> nameOrder[row];
+            case 1: return row -> totals[row];
+            case 2: return row -> levelOrder[row];
+            case 3: return row -> toNextLevel[row];
+            default:
+                int pool = column - FIXED_COLUMNS;
+                if (pool < 0 || pool >= pools.length) return null;
+                return row -> pools[pool][row];
+        }
+    }
+
+    // a plain table for exports: the user id, then the same columns as getColumns()
+    public String[] getExportHeader() {
+        String[] header = new String[1 + FIXED_COLUMNS + poolTitles.length];
+        header[0] = "User ID";
+        header[1] = "Name";
+        header[2] = "Total";
+        header[3] = "Ninja Belt";
+        header[4] = "Points to next level";
+        System.arraycopy(poolTitles, 0, header, 1 + FIXED_COLUMNS, poolTitles.length);
+        return header;
+    }
+
+    public Object[] getExportRow(int row) {
+        Object[] values = new Object[1 + FIXED_COLUMNS + pools.length];
+        values[0] = ids[row];
+        values[1] = names[row];
+        values[2] = totals[row];
+        values[3] = levels[row];
+        values[4] = toNextLevel[row];
+        for (int column = 0; column < pools.length; column++)
+            values[1 + FIXED_COLUMNS + column] = pools[column][row];
+        return values;
+    }
+
+    public Map<String, Object> row(int row) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", ids[row]);
+        result.put(NAME, names[row]);
+        result.put(TOTAL, totals[row]);
+        result.put(LEVEL, levels[row]);
+        result.put(TO_NEXT_LEVEL, toNextLevel[row]);
+        for (int column = 0; column < pools.length; column++)
+            result.put(poolTitles[column], pools[column][row]);
+        return result;
+    }
+
+    public List<Map<String, Object>> rows(int[] rows, int start, int length) {
+        int from = Math.max(0, Math.min(start, rows.length));
+        int to = length < 0 ? rows.length : (int) Math.min((long) from + length, rows.length);
+        List<Map<String, Object>> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++)
+            result.add(row(rows[i]));
+        return result;
+    }
+}
@@ -0,0 +1,57 @@
+package com.redhat.sso.ninja.scoring;
+
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.ConfigChanged;
+import com.redhat.sso.ninja.Database2;
+import com.redhat.sso.ninja.utils.LevelsUtil;
+import com.redhat.sso.ninja.utils.Tuple;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+// Holds the ScorecardTable for the current board version, rebuilding it on first use after a change
+@ApplicationScoped
+public class ScorecardTables {
+    private static final Logger log = Logger.getLogger(ScorecardTables.class);
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    LevelsUtil levelsUtil;
+
+    private final ScorecardTable.PoolDictionary dictionary = new ScorecardTable.PoolDictionary();
+    private volatile ScorecardTable current;
+
+    public ScorecardTable get() {
+        BoardSnapshot board = database.getBoard();
+        ScorecardTable table = current;
+        if (null == table || table.getVersion() != board.getVersion()) {
+            long s = System.currentTimeMillis();
+            table = ScorecardTable.build(board, dictionary, this::nextLevelPoints);
+            current = table;
+            log.debug("Scorecards table built (" + table.size() + " users, " + (System.currentTimeMillis() - s) + "ms)");
+        }
+        return table;
+    }
+
+    // for changes that don't touch the board, ie. new level thresholds
+    public void invalidate() {
+        current = null;
+    }
+
+    void configChanged(@Observes ConfigChanged change) {
+        invalidate();
+    }
+
+    private Integer nextLevelPoints(String level) {
+        Tuple<Integer, String> next = null != level ? levelsUtil.getNextLevel(level) : null;
+        if (null == next) {
+            log.error("Invalid level [" + level + "] found building the scorecards table");
+            return null;
+        }
+        return next.getLeft();
+    }
+}
@@ -0,0 +1,70 @@
+package com.redhat.sso.ninja.scripts;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.Config;
+import com.redhat.sso.ninja.ConfigSnapshot;
+import com.redhat.sso.ninja.graphs.GraphPublisher;
+
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// Runs the scripts every heartbeat.intervalInSeconds, on slots lined up with heartbeat.startTime
+// (both config options, falling back to ninja.heartbeat.*), ie. 21:00 daily or every 15 minutes
+// from 21:00. It checks every ninja.heartbeat.tick whether a slot has passed since the last run,
+// so option changes apply without a restart. Scripts only fetch what's new since their last
+// successful run (see Watermarks), which is what makes short intervals affordable. The graphs
+// proxy gets what changed once the scripts have finished
+@ApplicationScoped
+public class Heartbeat {
+    private static final Logger log = Logger.getLogger(Heartbeat.class);
+    static final String LAST_RUN = "heartbeat.lastRun";
+
+    @Inject
+    Config config;
+
+    @Inject
+    ScriptRunner scriptRunner;
+
+    @Inject
+    GraphPublisher graphPublisher;
+
+    @Scheduled(every = "{ninja.heartbeat.tick}", delayed = "{ninja.heartbeat.tick}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void tick() {
+        Instant now = Instant.now();
+        ConfigSnapshot options = config.getSnapshot();
+        Instant slot = lastSlot(now, options.getHeartbeatStartTime(), options.getHeartbeatIntervalSeconds(), ZoneId.systemDefault());
+        Instant lastRun = lastRun();
+        if (null == lastRun) { // first start: wait for the next slot rather than running straight away
+            config.putValue(LAST_RUN, now.toString());
+            return;
+        }
+        if (!lastRun.isBefore(slot) || scriptRunner.isRunning()) return;
+        log.infof("Heartbeat due (slot %s)", slot);
+        config.putValue(LAST_RUN, now.toString());
+        scriptRunner.runAll().thenRun(graphPublisher::publish);
+    }
+
+    private Instant lastRun() {
+        Object value = config.getValues().get(LAST_RUN);
+        try {
+            return null != value ? Instant.parse(value.toString()) : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // the most recent slot at or before now: startTime today plus a whole number of intervals
+    static Instant lastSlot(Instant now, LocalTime startTime, long intervalSeconds, ZoneId zone) {
+        Instant anchor = now.atZone(zone).toLocalDate().atTime(startTime).atZone(zone).toInstant();
+        long slots = Math.floorDiv(Duration.between(anchor, now).getSeconds(), intervalSeconds);
+        return anchor.plusSeconds(slots * intervalSeconds);
+    }
+}
@@ -0,0 +1,254 @@
+package com.redhat.sso.ninja.scripts;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.Config;
+import com.redhat.sso.ninja.Database2;
+import com.redhat.sso.ninja.ingest.PointsIncrement;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// Runs the point collection scripts in Config.getScripts() side by side, at most max-concurrent
+// at a time, so a run takes about as long as the slowest script rather than all of them added
+// up. Each script is a shell command; its output is read as it's written and every line of the
+// form "<pool> <user> <points> [key=value,...]" (the pool has a dot, ie. trello.cards) becomes a
+// points increment, applied in batches (see Database2.incrementAll). Other lines are ignored.
+// A script still running after its timeout is killed. Each run records a "Script Execution
+// Succeeded" or "Script Execution FAILED" event with how long it took.
+// Scripts are told where their last successful run got to (see Watermarks) in NINJA_SINCE (ISO
+// 8601), NINJA_SINCE_EPOCH (seconds) and NINJA_CURSOR, unset on a first run, and should only
+// fetch what's newer. A "watermark <cursor>" output line reports the cursor to pass next time
+@ApplicationScoped
+public class ScriptRunner {
+    private static final Logger log = Logger.getLogger(ScriptRunner.class);
+    private static final String WATERMARK_PREFIX = "watermark ";
+    private static final Pattern POINTS_LINE = Pattern.compile("^(\\S+\\.\\S+)\\s+(\\S+)\\s+(-?\\d+)(?:\\s+(\\S+))?\\s*$");
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    Config config;
+
+    @Inject
+    Watermarks watermarks;
+
+    @ConfigProperty(name = "ninja.scripts.dir", defaultValue = "target/ninja-persistence/scripts")
+    File workingDir;
+
+    @ConfigProperty(name = "ninja.scripts.max-concurrent", defaultValue = "4")
+    int maxConcurrent;
+
+    @ConfigProperty(name = "ninja.scripts.timeout-seconds", defaultValue = "900")
+    long timeoutSeconds;
+
+    @ConfigProperty(name = "ninja.scripts.batch-size", defaultValue = "500")
+    int batchSize;
+
+    private ExecutorService executor;
+    private ScheduledExecutorService timeouts;
+    private CompletableFuture<Void> running;
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), r -> {
+            Thread t = new Thread(r, "ninja-script-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ninja-script-timeouts");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+    }
+
+    public synchronized boolean isRunning() {
+        return null != running && !running.isDone();
+    }
+
+    // starts every enabled script; if a run is already going, that run is returned instead
+    public synchronized CompletableFuture<Void> runAll() {
+        if (isRunning()) return running;
+        List<Map<String, Object>> scripts = new ArrayList<>();
+        for (Map<String, Object> script : config.getScripts())
+            if (!"false".equalsIgnoreCase(String.valueOf(script.get("enabled")))) scripts.add(script);
+
+        long s = System.currentTimeMillis();
+        log.infof("Running %d scripts (max %d at a time)", scripts.size(), maxConcurrent);
+        List<CompletableFuture<Boolean>> runs = new ArrayList<>();
+        for (Map<String, Object> script : scripts)
+            runs.add(CompletableFuture.supplyAsync(() -> run(script), executor));
+        running = CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).thenRun(() -> {
+            long failed = runs.stream().filter(run -> !run.join()).count();
+            log.infof("Scripts finished in %dms (%d run, %d failed)", System.currentTimeMillis() - s, runs.size(), failed);
+        });
+        return running;
+    }
+
+    // true if the script ran to completion and exited with 0
+    boolean run(Map<String, Object> script) {
+        String name = String.valueOf(script.getOrDefault("name", script.get("script")));
+        Object command = script.get("script");
+        if (null == command) {
+            database.addEvent("Script Execution FAILED", null, name + ": no script configured");
+            return false;
+        }
+        long timeout = timeout(script);
+        Map<String, String> userIds = userIds(script);
+        Watermarks.Watermark mark = watermarks.get(name);
+        Instant started = Instant.now();
+        String cursor = null;
+        long s = System.currentTimeMillis();
+        int lines = 0;
+        int applied = 0;
+        AtomicBoolean timedOut = new AtomicBoolean();
+        try {
+            if (!workingDir.exists()) workingDir.mkdirs();
+            ProcessBuilder builder = new ProcessBuilder("sh", "-c", command.toString())
+                    .directory(workingDir)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT);
+            if (null != mark) {
+                builder.environment().put("NINJA_SINCE", mark.getSince().toString());
+                builder.environment().put("NINJA_SINCE_EPOCH", String.valueOf(mark.getSince().getEpochSecond()));
+                if (null != mark.getCursor()) builder.environment().put("NINJA_CURSOR", mark.getCursor());
+            }
+            Process process = builder.start();
+            ScheduledFuture<?> killer = timeouts.schedule(() -> {
+                timedOut.set(true);
+                kill(process);
+            }, timeout, TimeUnit.SECONDS);
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                process.getOutputStream().close();
+                List<PointsIncrement> batch = new ArrayList<>(batchSize);
+                String line;
+                while ((line = out.readLine()) != null) {
+                    lines++;
+                    if (line.startsWith(WATERMARK_PREFIX)) {
+                        cursor = line.substring(WATERMARK_PREFIX.length()).trim();
+                        continue;
+                    }
+                    PointsIncrement increment = parse(line, userIds);
+                    if (null == increment) continue;
+                    batch.add(increment);
+                    if (batch.size() >= batchSize) {
+                        applied += apply(batch);
+                        batch.clear();
+                    }
+                }
+                applied += apply(batch);
+                int exitCode = process.waitFor();
+                String took = (System.currentTimeMillis() - s) + "ms";
+                if (timedOut.get() || exitCode != 0) {
+                    String why = timedOut.get() ? "timed out after " + timeout + "s" : "exit code " + exitCode;
+                    log.warnf("Script %s failed (%s, took %s, %d lines, %d increments applied)", name, why, took, lines, applied);
+                    database.addEvent("Script Execution FAILED", null, name + " " + why + " (took " + took + ", " + applied + " increments applied)");
+                    return false;
+                }
+                watermarks.advance(name, started, cursor);
+                log.infof("Script %s succeeded (took %s, %d lines, %d increments applied)", name, took, lines, applied);
+                database.addEvent("Script Execution Succeeded", null, name + " (took " + took + ", " + applied + " increments applied)");
+                return true;
+            } finally {
+                killer.cancel(false);
+                if (process.isAlive()) kill(process);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.errorf(e, "Script %s failed", name);
+            database.addEvent("Script Execution FAILED", null, name + ": " + e.getMessage() + " (took " + (System.currentTimeMillis() - s) + "ms)");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // whatever the shell started too, or they'd keep its output open
+    private static void kill(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private long timeout(Map<String, Object> script) {
+        Object value = script.get("timeoutSeconds");
+        if (null != value && String.valueOf(value).matches("\\d+")) return Long.parseLong(String.valueOf(value));
+        return timeoutSeconds;
+    }
+
+    private int apply(List<PointsIncrement> batch) {
+        if (batch.isEmpty()) return 0;
+        int applied = 0;
+        for (PointsIncrement.Status status : database.incrementAll(batch))
+            if (status == PointsIncrement.Status.APPLIED) applied++;
+        return applied;
+    }
+
+    // a script may report users by another id (ie. their GitHub login), named by its userIdField option
+    private Map<String, String> userIds(Map<String, Object> script) {
+        Object field = script.get("userIdField");
+        if (null == field) return null;
+        Map<String, String> userIds = new HashMap<>();
+        for (Entry<String, Map<String, String>> e : database.getBoard().getUsers().entrySet()) {
+            String id = e.getValue().get(field.toString());
+            if (null != id) userIds.put(id, e.getKey());
+        }
+        return userIds;
+    }
+
+    // "<pool> <user> <points> [key=value,...]"; link params with a linkId make the increment's
+    // de-duplication key, so the same card or PR isn't scored again on the next run
+    static PointsIncrement parse(String line, Map<String, String> userIds) {
+        Matcher m = POINTS_LINE.matcher(line);
+        if (!m.matches()) return null;
+        String pool = m.group(1);
+        String user = null != userIds ? userIds.getOrDefault(m.group(2), m.group(2)) : m.group(2);
+        Map<String, String> params = new LinkedHashMap<>();
+        if (null != m.group(4)) {
+            for (String param : m.group(4).split(",")) {
+                int i = param.indexOf('=') > 0 ? param.indexOf('=') : param.indexOf(':');
+                if (i > 0) params.put(param.substring(0, i), param.substring(i + 1));
+            }
+        }
+        if (!params.isEmpty()) params.putIfAbsent("pool", pool); // the link text for GitHub items needs it
+        String key = params.containsKey("linkId") ? pool + "." + user + "." + params.get("linkId") : null;
+        try {
+            return new PointsIncrement(pool, user, Integer.valueOf(m.group(3)), key, params.isEmpty() ? null : params);
+        } catch (NumberFormatException e) {
+            return null; // too big for an int, not a points line
+        }
+    }
+}
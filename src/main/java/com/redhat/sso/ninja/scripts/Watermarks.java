@@ -0,0 +1,75 @@
+package com.redhat.sso.ninja.scripts;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+import com.redhat.sso.ninja.Config;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// How far each script has got, so a heartbeat only asks for what's new: per script name, the
+// time its last successful run started ("since") and the last cursor it reported ("cursor").
+// Kept in Config.getValues() under "watermarks"; remove a script's entry to have it start over
+@ApplicationScoped
+public class Watermarks {
+    private static final Logger log = Logger.getLogger(Watermarks.class);
+    static final String KEY = "watermarks";
+
+    @Inject
+    Config config;
+
+    public static final class Watermark {
+        private final Instant since;
+        private final String cursor;
+
+        Watermark(Instant since, String cursor) {
+            this.since = since;
+            this.cursor = cursor;
+        }
+
+        public Instant getSince() {
+            return since;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+    }
+
+    // null if the script hasn't completed a run yet
+    public synchronized Watermark get(String script) {
+        Map<String, String> mark = all().get(script);
+        if (null == mark || null == mark.get("since")) return null;
+        try {
+            return new Watermark(Instant.parse(mark.get("since")), mark.get("cursor"));
+        } catch (DateTimeParseException e) {
+            log.warnf("Ignoring unreadable watermark for script %s: %s", script, mark);
+            return null;
+        }
+    }
+
+    // after a successful run: the next one picks up from when this one started
+    public synchronized void advance(String script, Instant since, String cursor) {
+        Map<String, Map<String, String>> marks = new LinkedHashMap<>(all());
+        Map<String, String> mark = new LinkedHashMap<>();
+        mark.put("since", since.toString());
+        if (null != cursor) {
+            mark.put("cursor", cursor);
+        } else if (marks.containsKey(script) && null != marks.get(script).get("cursor")) {
+            mark.put("cursor", marks.get(script).get("cursor")); // nothing new reported, keep the last one
+        }
+        marks.put(script, mark);
+        config.putValue(KEY, marks);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<String, String>> all() {
+        Object marks = config.getValues().get(KEY);
+        return marks instanceof Map ? (Map<String, Map<String, String>>) marks : new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,90 @@
+package com.redhat.sso.ninja.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+// The belts parsed from a thresholds option ("0:ZERO,5:BLUE,...") into arrays sorted by points,
+// so the level for a total is a binary search and a level's position a map lookup. Never changed
+// once built; LevelsUtil swaps in a new one when the option changes
+public final class LevelTable {
+    private static final Logger log = Logger.getLogger(LevelTable.class);
+    public static final String DEFAULT_THRESHOLDS = "0:ZERO,5:BLUE,20:GREY,40:RED,75:BLACK";
+
+    private final String spec;
+    private final int[] thresholds;
+    private final Tuple<Integer, String>[] levels;
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private LevelTable(String spec, List<Tuple<Integer, String>> sorted) {
+        this.spec = spec;
+        this.thresholds = new int[sorted.size()];
+        this.levels = sorted.toArray(new Tuple[0]);
+        for (int i = 0; i < levels.length; i++) {
+            thresholds[i] = levels[i].getLeft();
+            positions.putIfAbsent(levels[i].getRight(), i);
+        }
+    }
+
+    public static LevelTable parse(String spec) {
+        List<Tuple<Integer, String>> levels = new ArrayList<>();
+        for (String source : new String[] { spec, DEFAULT_THRESHOLDS }) {
+            if (null == source || source.isBlank()) continue;
+            for (String levelValueAndText : source.split(",")) {
+                String[] level = levelValueAndText.split(":");
+                if (level.length != 2) continue;
+                try {
+                    levels.add(new Tuple<>(Integer.valueOf(level[0].trim()), level[1].trim()));
+                } catch (NumberFormatException e) {
+                    log.warnf("Ignoring threshold [%s], the points aren't a number", levelValueAndText);
+                }
+            }
+            if (!levels.isEmpty()) break;
+        }
+        levels.sort(Comparator.comparing(Tuple::getLeft)); // stable, so equal thresholds keep their order
+        return new LevelTable(spec, levels);
+    }
+
+    // the option this was built from
+    public String getSpec() {
+        return spec;
+    }
+
+    public int size() {
+        return levels.length;
+    }
+
+    public Tuple<Integer, String> get(int position) {
+        return levels[position];
+    }
+
+    // -1 for a level that isn't in the table
+    public int positionOf(String levelName) {
+        Integer position = null != levelName ? positions.get(levelName) : null;
+        return null != position ? position : -1;
+    }
+
+    // the highest level whose threshold the points reach, or the base level if they reach none
+    public int positionFor(int points) {
+        int i = Arrays.binarySearch(thresholds, points);
+        if (i >= 0) {
+            while (i + 1 < thresholds.length && thresholds[i + 1] == points) i++;
+            return i;
+        }
+        return Math.max(0, -i - 2);
+    }
+
+    public Tuple<Integer, String> getBase() {
+        return levels[0];
+    }
+
+    public Tuple<Integer, String> getTop() {
+        return levels[levels.length - 1];
+    }
+}
@@ -1,88 +1,53 @@
 package com.redhat.sso.ninja.utils;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import com.redhat.sso.ninja.Config;
 
+// Level lookups against the LevelTable parsed from the thresholds option, as of the config
+// snapshot currently published (see Config.getSnapshot)
 @ApplicationScoped
 public class LevelsUtil {
-    
+
     @Inject
     Config config;
-    
-    private List<Tuple<Integer, String>> levels = new LinkedList<>();
-    private Tuple<Integer, String> base;
-    private Tuple<Integer, String> top;
 
     public LevelsUtil() {
         // Default constructor for CDI
     }
 
-    public void initialize(String levelConfig) {
-        if (levelConfig == null || levelConfig.isEmpty()) {
-            levelConfig = "0:ZERO,5:BLUE,20:GREY,40:RED,75:BLACK";
-        }
-        levels.clear();
-        for (String levelValueAndText : levelConfig.split(",")) {
-            String[] level = levelValueAndText.split(":");
-            if (level.length == 2) {
-                levels.add(new Tuple<>(Integer.valueOf(level[0].trim()), level[1].trim()));
-            }
-        }
-        if (!levels.isEmpty()) {
-            base = levels.get(0);
-            top = levels.get(levels.size() - 1);
-        }
+    public LevelTable getTable() {
+        return config.getSnapshot().getLevels();
     }
 
     public Tuple<Integer, String> getBaseLevel() {
-        ensureInitialized();
-        return base;
-    }
-    
-    private void ensureInitialized() {
-        if (levels.isEmpty() && config != null) {
-            initialize(config.getOptions().getOrDefault("thresholds", "0:ZERO,5:BLUE,20:GREY,40:RED,75:BLACK"));
-        }
+        return getTable().getBase();
     }
 
     public Tuple<Integer, String> getLevel(String levelName) {
-        ensureInitialized();
-        for (Tuple<Integer, String> l : levels) {
-            if (l.getRight().equals(levelName)) return l;
-        }
-        return null;
+        LevelTable levels = getTable();
+        int i = levels.positionOf(levelName);
+        return i >= 0 ? levels.get(i) : null;
     }
 
+    // the top level is its own next level
     public Tuple<Integer, String> getNextLevel(String currentLevelName) {
-        ensureInitialized();
-        for (int i = 0; i < levels.size(); i++) {
-            if (levels.get(i).getRight().equals(currentLevelName))
-                return levels.get((i + 1) == levels.size() ? i : i + 1);
-        }
-        return null;
+        LevelTable levels = getTable();
+        int i = levels.positionOf(currentLevelName);
+        if (i < 0) return null;
+        return levels.get(Math.min(i + 1, levels.size() - 1));
     }
 
+    // the base level is its own last level
     public Tuple<Integer, String> getLastLevel(String currentLevelName) {
-        ensureInitialized();
-        if (!levels.isEmpty() && levels.get(0).getRight().equals(currentLevelName)) return levels.get(0);
-        for (int i = levels.size() - 1; i >= 0; i--) {
-            if (levels.get(i).getRight().equals(currentLevelName))
-                return levels.get((i - 1) < 0 ? i : i - 1);
-        }
-        return null;
+        LevelTable levels = getTable();
+        int i = levels.positionOf(currentLevelName);
+        if (i < 0) return null;
+        return levels.get(Math.max(i - 1, 0));
     }
 
     public Tuple<Integer, String> getLevelGivenPoints(Integer points) {
-        ensureInitialized();
-        Tuple<Integer, String> result = base;
-        for (Tuple<Integer, String> l : levels) {
-            if (points >= l.getLeft()) result = l;
-        }
-        return result;
+        LevelTable levels = getTable();
+        return levels.get(levels.positionFor(points));
     }
 }
-
@@ -0,0 +1,254 @@
+package com.redhat.sso.ninja.graphs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.redhat.sso.ninja.Database2;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+
+// Publishes to a stub graphs proxy (a JDK HttpServer) and checks what arrives there. The profile
+// and the test run in different class loaders, so only the port is shared (as a system property)
+// and the stub itself is started by the test
+@QuarkusTest
+@TestProfile(GraphPublisherTest.StubProxy.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class GraphPublisherTest {
+    static final int BATCH_BYTES = 300;
+    static final long BACKOFF_MS = 100;
+    static final String DATA = "target/graphs-test";
+    static final String PORT = "ninja.graphs.test.port";
+
+    static HttpServer server;
+    static final List<Request> requests = new ArrayList<>();
+    static final AtomicInteger failures = new AtomicInteger(); // answer this many requests with a 503
+
+    static class Request {
+        final long at = System.nanoTime();
+        final String encoding;
+        final byte[] body;
+        final int status;
+
+        Request(String encoding, byte[] body, int status) {
+            this.encoding = encoding;
+            this.body = body;
+            this.status = status;
+        }
+    }
+
+    static synchronized int port() {
+        String port = System.getProperty(PORT);
+        if (null == port) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = String.valueOf(socket.getLocalPort());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            System.setProperty(PORT, port);
+        }
+        return Integer.parseInt(port);
+    }
+
+    @BeforeAll
+    static void startProxy() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port()), 0);
+        server.createContext("/ninja-roxy/graphs", GraphPublisherTest::handle);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopProxy() {
+        server.stop(0);
+    }
+
+    static void handle(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        int status = failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0 ? 503 : 200;
+        synchronized (requests) {
+            requests.add(new Request(exchange.getRequestHeaders().getFirst("Content-Encoding"), body, status));
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    public static class StubProxy implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            try {
+                FileUtils.deleteDirectory(new File(DATA));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return Map.ofEntries(
+                    Map.entry("ninja.graphs.proxy", "http://localhost:" + port() + "/ninja-roxy"),
+                    Map.entry("ninja.graphs.batch-bytes", String.valueOf(BATCH_BYTES)),
+                    Map.entry("ninja.graphs.backoff-ms", String.valueOf(BACKOFF_MS)),
+                    Map.entry("ninja.graphs.max-attempts", "4"),
+                    Map.entry("ninja.config.watch", "false"),
+                    Map.entry("ninja.config.file", DATA + "/config.json"),
+                    Map.entry("ninja.database.file", DATA + "/database2.json"),
+                    Map.entry("ninja.database.wal.file", DATA + "/database2.wal"),
+                    Map.entry("ninja.events.dir", DATA + "/events"),
+                    Map.entry("ninja.dedup.file", DATA + "/dedup.bin"),
+                    Map.entry("ninja.tasks.sequence.file", DATA + "/tasks.seq"));
+        }
+    }
+
+    @Inject
+    GraphPublisher publisher;
+
+    @Inject
+    Database2 database;
+
+    @Inject
+    @Named("objectMapper")
+    ObjectMapper objectMapper;
+
+    @BeforeEach
+    void clear() {
+        synchronized (requests) {
+            requests.clear();
+        }
+        failures.set(0);
+    }
+
+    @Test
+    @Order(1)
+    void sendsEveryDatasetGzippedInBatches() throws Exception {
+        database.restore(objectMapper.readValue("{\"users\":{"
+                + "\"amy\":{\"level\":\"ZERO\",\"displayName\":\"Amy\"},"
+                + "\"bob\":{\"level\":\"ZERO\",\"displayName\":\"Bob\"},"
+                + "\"cat\":{\"level\":\"ZERO\",\"displayName\":\"Cat\"}},"
+                + "\"scoreCards\":{\"amy\":{\"trello\":3},\"bob\":{\"github\":2},\"cat\":{\"trello\":1}}}", Database2.class));
+
+        assertEquals(8, publish());
+
+        List<JsonNode> bodies = bodies();
+        assertTrue(bodies.size() > 1, "expected several batches, got " + bodies.size());
+        Set<String> names = new HashSet<>();
+        for (JsonNode body : bodies) {
+            int bytes = 0;
+            int last = 0;
+            for (var it = body.get("datasets").fields(); it.hasNext();) {
+                var dataset = it.next();
+                assertTrue(names.add(dataset.getKey()), dataset.getKey() + " sent twice");
+                last = objectMapper.writeValueAsBytes(dataset.getValue()).length;
+                bytes += last;
+            }
+            assertTrue(bytes - last < BATCH_BYTES, "a batch only goes over batch-bytes with its last dataset");
+        }
+        assertEquals(Set.of("ninjas", "leaderboard/10", "nextlevel/amy", "breakdown/amy", "nextlevel/bob", "breakdown/bob", "nextlevel/cat", "breakdown/cat"), names);
+    }
+
+    @Test
+    @Order(2)
+    void resendsOnlyWhatChanged() throws Exception {
+        database.increment("trello", "bob", 4, null);
+
+        assertEquals(4, publish());
+        assertEquals(Set.of("ninjas", "leaderboard/10", "nextlevel/bob", "breakdown/bob"), datasetNames());
+
+        clear();
+        assertEquals(0, publish());
+        assertEquals(0, requests.size(), "nothing changed, nothing to send");
+    }
+
+    @Test
+    @Order(3)
+    void listsTheDatasetsOfRemovedUsers() throws Exception {
+        database.restore(objectMapper.readValue("{\"users\":{"
+                + "\"amy\":{\"level\":\"ZERO\",\"displayName\":\"Amy\"},"
+                + "\"bob\":{\"level\":\"BLUE\",\"displayName\":\"Bob\"}},"
+                + "\"scoreCards\":{\"amy\":{\"trello\":3},\"bob\":{\"github\":2,\"trello\":4}}}", Database2.class));
+
+        publish();
+        Set<String> removed = new HashSet<>();
+        for (JsonNode body : bodies())
+            body.get("removed").forEach(name -> removed.add(name.asText()));
+        assertEquals(Set.of("nextlevel/cat", "breakdown/cat"), removed);
+        assertTrue(!datasetNames().contains("nextlevel/cat"));
+    }
+
+    @Test
+    @Order(4)
+    void retriesWithBackoffAfterA503() throws Exception {
+        database.increment("github", "bob", 1, null); // bob is BLUE since the last test, so he's on "ninjas" too
+        failures.set(2);
+
+        assertEquals(4, publish());
+
+        List<Request> sent = requests();
+        assertTrue(sent.size() >= 3, "expected two 503s then the batches, got " + sent.size());
+        assertEquals(503, sent.get(0).status);
+        assertEquals(503, sent.get(1).status);
+        for (Request request : sent.subList(2, sent.size()))
+            assertEquals(200, request.status);
+        long first = TimeUnit.NANOSECONDS.toMillis(sent.get(1).at - sent.get(0).at);
+        long second = TimeUnit.NANOSECONDS.toMillis(sent.get(2).at - sent.get(1).at);
+        assertTrue(first >= BACKOFF_MS, "first retry after " + first + "ms");
+        assertTrue(second >= 2 * BACKOFF_MS, "second retry after " + second + "ms, the backoff doubles");
+        assertEquals(Set.of("ninjas", "leaderboard/10", "nextlevel/bob", "breakdown/bob"), datasetNames());
+    }
+
+    private int publish() throws Exception {
+        return publisher.publish().get(30, TimeUnit.SECONDS);
+    }
+
+    private List<Request> requests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    // the bodies the proxy accepted, each checked to be gzipped
+    private List<JsonNode> bodies() throws IOException {
+        List<JsonNode> bodies = new ArrayList<>();
+        for (Request request : requests()) {
+            assertEquals("gzip", request.encoding);
+            if (request.status != 200) continue;
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(request.body))) {
+                bodies.add(objectMapper.readTree(in));
+            }
+        }
+        return bodies;
+    }
+
+    private Set<String> datasetNames() throws IOException {
+        Set<String> names = new HashSet<>();
+        for (JsonNode body : bodies())
+            body.get("datasets").fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+}